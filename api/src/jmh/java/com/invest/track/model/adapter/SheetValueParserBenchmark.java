@@ -0,0 +1,76 @@
+package com.invest.track.model.adapter;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+// Compares parsing a formatted cell through AdapterUtils with the parsing it did before
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SheetValueParserBenchmark {
+  private static final List<String> FORMER_DATE_FORMATTERS =
+      List.of(
+          "dd/MM/yyyy HH:mm:ss", "dd/MM/yyyy H:mm:ss", "d/MM/yyyy HH:mm:ss", "d/MM/yyyy H:mm:ss");
+
+  private final AdapterUtils adapterUtils = new AdapterUtils();
+
+  @Param({"3.147,21 €", "-125.000,5 €"})
+  public String currencyText;
+
+  @Param({"12,5 %"})
+  public String percentageText;
+
+  // The second one only matches the last of the former formatters
+  @Param({"24/05/2024 10:15:30", "4/05/2024 9:05:00"})
+  public String dateTimeText;
+
+  @Benchmark
+  public Double currency() {
+    return adapterUtils.parseCurrencyDouble(currencyText);
+  }
+
+  @Benchmark
+  public Double formerCurrency() {
+    return Double.parseDouble(currencyText.replace(".", "").replace("€", "").replace(",", "."));
+  }
+
+  @Benchmark
+  public Double percentage() {
+    return adapterUtils.parsePercentageDouble(percentageText);
+  }
+
+  @Benchmark
+  public Double formerPercentage() {
+    var absolutePercentage = !percentageText.contains("%");
+    var value = Double.parseDouble(percentageText.replace("%", "").replace(",", "."));
+    return absolutePercentage ? value : value / 100;
+  }
+
+  @Benchmark
+  public LocalDateTime dateTime() {
+    return adapterUtils.parseDateTime(dateTimeText);
+  }
+
+  @Benchmark
+  public LocalDateTime formerDateTime() {
+    for (var formatter : FORMER_DATE_FORMATTERS) {
+      try {
+        return LocalDateTime.parse(dateTimeText, DateTimeFormatter.ofPattern(formatter));
+      } catch (DateTimeException e) {
+        // Tried with the next formatter
+      }
+    }
+    throw new DateTimeException("Failed to parse date time value \"" + dateTimeText + "\"");
+  }
+}
@@ -0,0 +1,78 @@
+package com.invest.track.api.google;
+
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Stops calling Google Sheets after a number of consecutive failed calls. While open, calls are
+ * rejected right away. Once the open duration elapses a single trial call is let through, which
+ * closes the breaker when it succeeds and opens it again when it fails.
+ */
+
+@Slf4j
+public class CircuitBreaker {
+  private final int failureThreshold;
+  private final Duration openDuration;
+
+  // Guarded by this
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openedAtNanos;
+
+  public CircuitBreaker(int failureThreshold, Duration openDuration) {
+    this.failureThreshold = failureThreshold;
+    this.openDuration = openDuration;
+  }
+
+  public synchronized boolean tryAcquire() {
+    if (state == State.CLOSED) {
+      return true;
+    }
+    if (state == State.OPEN && System.nanoTime() - openedAtNanos >= openDuration.toNanos()) {
+      log.info("Circuit breaker half open, letting a trial call through");
+      state = State.HALF_OPEN;
+      return true;
+    }
+    // Either still open, or the trial call is in flight
+    return false;
+  }
+
+  public synchronized void onSuccess() {
+    if (state != State.CLOSED) {
+      log.info("Circuit breaker closed, Google Sheets calls succeed again");
+    }
+    state = State.CLOSED;
+    consecutiveFailures = 0;
+  }
+
+  public synchronized void onFailure() {
+    consecutiveFailures++;
+    if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+      if (state != State.OPEN) {
+        log.warn(
+            "Circuit breaker open after {} consecutive failures, rejecting calls for {}",
+            consecutiveFailures,
+            openDuration);
+      }
+      state = State.OPEN;
+      openedAtNanos = System.nanoTime();
+    }
+  }
+
+  // Gives back the trial call without an outcome, so the next call is let through as a new trial
+  public synchronized void release() {
+    if (state == State.HALF_OPEN) {
+      state = State.OPEN;
+    }
+  }
+
+  public synchronized boolean isOpen() {
+    return state != State.CLOSED;
+  }
+
+  private enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+}
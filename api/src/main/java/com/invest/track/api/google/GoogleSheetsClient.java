@@ -2,144 +2,300 @@ package com.invest.track.api.google;
 
 import com.google.api.services.sheets.v4.Sheets;
 import com.google.api.services.sheets.v4.model.AddSheetRequest;
+import com.google.api.services.sheets.v4.model.BatchClearValuesRequest;
 import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetRequest;
-import com.google.api.services.sheets.v4.model.ClearValuesRequest;
+import com.google.api.services.sheets.v4.model.BatchUpdateSpreadsheetResponse;
+import com.google.api.services.sheets.v4.model.BatchUpdateValuesRequest;
+import com.google.api.services.sheets.v4.model.CreateDeveloperMetadataRequest;
 import com.google.api.services.sheets.v4.model.DeleteSheetRequest;
+import com.google.api.services.sheets.v4.model.DeveloperMetadata;
+import com.google.api.services.sheets.v4.model.DeveloperMetadataLocation;
 import com.google.api.services.sheets.v4.model.Request;
+import com.google.api.services.sheets.v4.model.Sheet;
 import com.google.api.services.sheets.v4.model.SheetProperties;
+import com.google.api.services.sheets.v4.model.UpdateSheetPropertiesRequest;
 import com.google.api.services.sheets.v4.model.ValueRange;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-import lombok.RequiredArgsConstructor;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-// Performs operations on Google Sheets API
+// Performs operations on Google Sheets API, sending every request through the request executor
 
 @Slf4j
-@RequiredArgsConstructor
 @Component
 public class GoogleSheetsClient {
   private final Sheets sheets;
+  private final SheetsRequestExecutor requestExecutor;
+  private final SheetsMetadataCache metadataCache;
+  private final SheetsReadMode readMode;
 
   private static final String INTERVAL_SEPARATOR = "!";
+  private static final String INVESTMENT_ID_METADATA_KEY = "investTrackInvestmentId";
 
-  public boolean sheetExists(String spreadSheetId, String sheetName) throws IOException {
-    var sheetsList = sheets.spreadsheets().get(spreadSheetId).execute().getSheets();
-    if (sheetsList == null) return false;
-    for (var sheet : sheetsList) {
-      var props = sheet.getProperties();
-      if (props != null && sheetName.equals(props.getTitle())) {
-        return true;
-      }
+  public GoogleSheetsClient(
+      Sheets sheets,
+      SheetsRequestExecutor requestExecutor,
+      @Value("${google.api.metadata-cache-ttl:5m}") Duration metadataCacheTtl,
+      @Value("${google.api.read-mode:formatted}") SheetsReadMode readMode) {
+    this.sheets = sheets;
+    this.requestExecutor = requestExecutor;
+    this.metadataCache = new SheetsMetadataCache(metadataCacheTtl);
+    this.readMode = readMode;
+    log.info("Reading Google Sheets values in {} mode", readMode);
+  }
+
+  // Reads several ranges in one request, the value ranges are returned in the requested order
+  public List<ValueRange> batchGet(String spreadSheetId, List<String> ranges) throws IOException {
+    log.info("Getting ranges {} of spread sheet id \"{}\"", ranges, spreadSheetId);
+    var response =
+        requestExecutor.read(
+            sheets
+                .spreadsheets()
+                .values()
+                .batchGet(spreadSheetId)
+                .setRanges(ranges)
+                .setValueRenderOption(readMode.getValueRenderOption())
+                .setDateTimeRenderOption(readMode.getDateTimeRenderOption()));
+    var valueRanges = response.getValueRanges();
+    return valueRanges == null ? List.of() : valueRanges;
+  }
+
+  // Served from the metadata cache while it is fresh
+  public Map<String, Integer> getSheets(String spreadSheetId) throws IOException {
+    var cachedSheets = metadataCache.get(spreadSheetId);
+    if (cachedSheets != null) {
+      log.trace("Using cached sheets for spread sheet id \"{}\"", spreadSheetId);
+      return cachedSheets;
     }
-    return false;
+    return refreshSheets(spreadSheetId);
   }
 
-  public List<List<Object>> readSheet(String spreadSheetId, String sheetName, String range)
-      throws IOException {
-    var msg = "Getting data for spread sheet id \"{}\", name \"{}\", and range \"{}\"";
-    log.info(msg, spreadSheetId, sheetName, range);
+  // The sheets tagged with an investment ID, by that ID. Served from the metadata cache too.
+  public Map<Long, Integer> getInvestmentSheets(String spreadSheetId) throws IOException {
+    var cachedSheets = metadataCache.getInvestmentSheets(spreadSheetId);
+    if (cachedSheets != null) {
+      return cachedSheets;
+    }
+    refreshSheets(spreadSheetId);
+    var investmentSheets = metadataCache.getInvestmentSheets(spreadSheetId);
+    return investmentSheets == null ? Map.of() : investmentSheets;
+  }
 
-    var rangeFormat = getRangeFormat(sheetName, range);
-    var response = sheets.spreadsheets().values().get(spreadSheetId, rangeFormat).execute();
+  public Map<String, Integer> refreshSheets(String spreadSheetId) throws IOException {
+    log.debug("Getting sheets for spread sheet id \"{}\"", spreadSheetId);
+    var sheets = requestExecutor.read(this.sheets.spreadsheets().get(spreadSheetId)).getSheets();
+    var sheetsMap = new HashMap<String, Integer>();
+    var investmentSheets = new HashMap<Long, Integer>();
+    if (sheets != null) {
+      for (var sheet : sheets) {
+        var sheetId = sheet.getProperties().getSheetId();
+        sheetsMap.put(sheet.getProperties().getTitle(), sheetId);
+        var investmentId = investmentIdOf(sheet);
+        if (investmentId != null && investmentSheets.putIfAbsent(investmentId, sheetId) != null) {
+          log.warn(
+              "Several sheets are tagged with investment ID {}, using the first", investmentId);
+        }
+      }
+    }
 
-    var values = response.getValues();
-    log.debug(
-        "Obtained values for spread sheet id \"{}\", name \"{}\", and range \"{}\": {}",
-        spreadSheetId,
-        sheetName,
-        range,
-        values);
+    log.info("Obtained sheets for spread sheet id \"{}\": {}", spreadSheetId, sheetsMap);
+    metadataCache.put(spreadSheetId, sheetsMap, investmentSheets);
+    return Map.copyOf(sheetsMap);
+  }
 
-    return values;
+  private static Long investmentIdOf(Sheet sheet) {
+    if (sheet.getDeveloperMetadata() == null) {
+      return null;
+    }
+    for (var metadata : sheet.getDeveloperMetadata()) {
+      if (INVESTMENT_ID_METADATA_KEY.equals(metadata.getMetadataKey())) {
+        try {
+          return Long.parseLong(metadata.getMetadataValue());
+        } catch (NumberFormatException e) {
+          log.warn("Ignoring invalid investment ID tag \"{}\"", metadata.getMetadataValue());
+        }
+      }
+    }
+    return null;
   }
 
   /*
-   * When we write to a sheet, we assume that the sheet exists, as it must be checked previously in the reading operation.
+   * Applies the structural changes of the batch in a single request. Deletions go first, so their
+   * titles can be taken by the renamed and added sheets. Titles are unique, so when a renamed sheet
+   * takes the title another one still holds, every renamed sheet is first moved to a temporary
+   * title. Added sheets get their IDs here, which lets them be tagged within the same request.
    */
-  public void writeToSheet(
-      String spreadSheetId, String name, String range, List<List<Object>> values)
+  public void updateSheetsStructure(String spreadSheetId, SheetsWriteBatch batch)
       throws IOException {
-    log.debug("Cleaning up the sheet before writing data");
-    clearSheet(spreadSheetId, name, range);
-
-    var rangeFormat = getRangeFormat(name, range);
-
-    var msg = "Writing data to spread sheet id \"{}\", sheet name \"{}\", and range \"{}\"";
-    log.info(msg, spreadSheetId, name, range);
+    if (!batch.hasStructuralChanges()) {
+      return;
+    }
+    var sheetsByName = getSheets(spreadSheetId);
+    var sheetsToDelete = batch.getSheetsToDelete();
+    var sheetsToRename = batch.getSheetsToRename();
+    var sheetsToTag = new LinkedHashMap<>(batch.getSheetsToTag());
+    var addedSheets = new HashMap<String, Integer>();
 
-    var body = new ValueRange().setValues(values);
-    sheets
-        .spreadsheets()
-        .values()
-        .update(spreadSheetId, rangeFormat, body)
-        .setValueInputOption("RAW") // TODO (Marc. A): Check if this is the best option
-        .execute();
-  }
+    var requests = new ArrayList<Request>();
+    for (var sheetId : sheetsToDelete) {
+      var deleteSheetRequest = new DeleteSheetRequest().setSheetId(sheetId);
+      requests.add(new Request().setDeleteSheet(deleteSheetRequest));
+    }
+    var titleTaken =
+        sheetsToRename.entrySet().stream()
+            .anyMatch(
+                rename -> {
+                  var holder = sheetsByName.get(rename.getValue());
+                  return holder != null
+                      && !holder.equals(rename.getKey())
+                      && !sheetsToDelete.contains(holder);
+                });
+    if (titleTaken) {
+      var takenTitles = new HashSet<>(sheetsByName.keySet());
+      takenTitles.addAll(sheetsToRename.values());
+      for (var id : sheetsToRename.keySet()) {
+        requests.add(renameRequest(id, temporaryTitle(id, takenTitles)));
+      }
+    }
+    sheetsToRename.forEach((id, title) -> requests.add(renameRequest(id, title)));
+    for (var sheet : batch.getSheetsToAdd()) {
+      var properties = new SheetProperties().setTitle(sheet.title());
+      if (sheet.investmentId() != null) {
+        var sheetId = newSheetId(sheetsByName, addedSheets);
+        properties.setSheetId(sheetId);
+        sheetsToTag.put(sheetId, sheet.investmentId());
+      }
+      addedSheets.put(sheet.title(), properties.getSheetId());
+      requests.add(new Request().setAddSheet(new AddSheetRequest().setProperties(properties)));
+    }
+    sheetsToTag.forEach((id, investmentId) -> requests.add(tagRequest(id, investmentId)));
 
-  public void clearSheet(String spreadSheetId, String name, String range) throws IOException {
     log.debug(
-        "Clearing data for spread sheet id \"{}\", name \"{}\", and range \"{}\"",
+        "Updating structure of spread sheet id \"{}\", adding {}, deleting {}, renaming {} and"
+            + " tagging {}",
         spreadSheetId,
-        name,
-        range);
-    sheets
-        .spreadsheets()
-        .values()
-        .clear(spreadSheetId, getRangeFormat(name, range), new ClearValuesRequest())
-        .execute();
-  }
+        batch.getSheetsToAdd(),
+        sheetsToDelete,
+        sheetsToRename,
+        sheetsToTag);
+    var batchUpdateRequest = new BatchUpdateSpreadsheetRequest().setRequests(requests);
+    BatchUpdateSpreadsheetResponse response;
+    try {
+      response =
+          requestExecutor.write(
+              this.sheets.spreadsheets().batchUpdate(spreadSheetId, batchUpdateRequest));
+    } catch (IOException e) {
+      // The failure may come from a stale view of the sheets, so they are fetched again next time
+      metadataCache.invalidate(spreadSheetId);
+      throw e;
+    }
 
-  public Map<String, Integer> getSheets(String spreadSheetId) throws IOException {
-    log.debug("Getting sheets for spread sheet id \"{}\"", spreadSheetId);
-    var sheets = this.sheets.spreadsheets().get(spreadSheetId).execute().getSheets();
-    var sheetsMap =
-        sheets.stream()
-            .collect(
-                Collectors.toMap(
-                    sheet -> sheet.getProperties().getTitle(),
-                    sheet -> sheet.getProperties().getSheetId()));
+    metadataCache.sheetsDeleted(spreadSheetId, sheetsToDelete);
+    sheetsToRename.forEach((id, title) -> metadataCache.sheetRenamed(spreadSheetId, id, title));
+    if (response.getReplies() != null) {
+      for (var reply : response.getReplies()) {
+        if (reply.getAddSheet() != null) {
+          var properties = reply.getAddSheet().getProperties();
+          metadataCache.sheetAdded(spreadSheetId, properties.getTitle(), properties.getSheetId());
+        }
+      }
+    }
+    sheetsToTag.forEach(
+        (id, investmentId) -> metadataCache.sheetTagged(spreadSheetId, id, investmentId));
+  }
 
-    log.info("Obtained sheets for spread sheet id \"{}\": {}", spreadSheetId, sheetsMap);
-    return sheetsMap;
+  private static Request renameRequest(Integer sheetId, String title) {
+    var properties = new SheetProperties().setSheetId(sheetId).setTitle(title);
+    return new Request()
+        .setUpdateSheetProperties(
+            new UpdateSheetPropertiesRequest().setProperties(properties).setFields("title"));
   }
 
-  public void createSheet(String spreadSheetId, String title) throws IOException {
-    log.info("Investment entries sheet \"{}\" does not exist, creating it", title);
-    var addSheetRequest =
-        new AddSheetRequest().setProperties(new SheetProperties().setTitle(title));
+  // Not held by any sheet, including those of users, nor taken later by the same request
+  static String temporaryTitle(Integer sheetId, Set<String> takenTitles) {
+    var title = "~" + sheetId;
+    while (!takenTitles.add(title)) {
+      title += "~";
+    }
+    return title;
+  }
 
-    var batchUpdateRequest =
-        new BatchUpdateSpreadsheetRequest()
-            .setRequests(List.of(new Request().setAddSheet(addSheetRequest)));
+  private static Request tagRequest(Integer sheetId, Long investmentId) {
+    var metadata =
+        new DeveloperMetadata()
+            .setMetadataKey(INVESTMENT_ID_METADATA_KEY)
+            .setMetadataValue(String.valueOf(investmentId))
+            .setLocation(new DeveloperMetadataLocation().setSheetId(sheetId))
+            .setVisibility("DOCUMENT");
+    return new Request()
+        .setCreateDeveloperMetadata(
+            new CreateDeveloperMetadataRequest().setDeveloperMetadata(metadata));
+  }
 
-    sheets.spreadsheets().batchUpdate(spreadSheetId, batchUpdateRequest).execute();
-    log.info("Sheet \"{}\" created successfully.", title);
+  private static Integer newSheetId(
+      Map<String, Integer> sheetsByName, Map<String, Integer> addedSheets) {
+    while (true) {
+      var sheetId = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+      if (!sheetsByName.containsValue(sheetId) && !addedSheets.containsValue(sheetId)) {
+        return sheetId;
+      }
+    }
   }
 
-  public void deleteSheets(String spreadSheetId, List<Integer> sheets) throws IOException {
-    if (sheets == null || sheets.isEmpty()) {
-      log.warn("No sheets to delete.");
+  public void batchClear(String spreadSheetId, List<String> ranges) throws IOException {
+    if (ranges.isEmpty()) {
       return;
     }
+    log.debug("Clearing ranges {} of spread sheet id \"{}\"", ranges, spreadSheetId);
+    requestExecutor.write(
+        sheets
+            .spreadsheets()
+            .values()
+            .batchClear(spreadSheetId, new BatchClearValuesRequest().setRanges(ranges)));
+  }
 
-    var requests = new ArrayList<Request>();
-    for (var sheetId : sheets) {
-      var deleteSheetRequest = new DeleteSheetRequest().setSheetId(sheetId);
-      requests.add(new Request().setDeleteSheet(deleteSheetRequest));
+  public void batchUpdate(String spreadSheetId, List<ValueRange> data) throws IOException {
+    if (data.isEmpty()) {
+      return;
     }
+    var ranges = data.stream().map(ValueRange::getRange).toList();
+    log.info("Writing ranges {} of spread sheet id \"{}\"", ranges, spreadSheetId);
+    var body = new BatchUpdateValuesRequest().setValueInputOption("RAW").setData(data);
+    requestExecutor.write(sheets.spreadsheets().values().batchUpdate(spreadSheetId, body));
+  }
 
-    var batchUpdateRequest = new BatchUpdateSpreadsheetRequest().setRequests(requests);
-
-    this.sheets.spreadsheets().batchUpdate(spreadSheetId, batchUpdateRequest).execute();
-    log.info("Sheet \"{}\" deleted successfully.", sheets);
+  /*
+   * Sends every operation of the batch in at most three requests. Sheets are added and renamed
+   * before writing, as the written ranges refer to their new titles, and ranges are cleared before
+   * being written.
+   */
+  public void executeBatch(String spreadSheetId, SheetsWriteBatch batch) throws IOException {
+    if (batch.isEmpty()) {
+      log.debug("Nothing to write to spread sheet id \"{}\"", spreadSheetId);
+      return;
+    }
+    updateSheetsStructure(spreadSheetId, batch);
+    try {
+      batchClear(spreadSheetId, batch.getRangesToClear());
+      batchUpdate(spreadSheetId, batch.getValuesToWrite());
+    } catch (IOException e) {
+      // A range may point to a sheet that was removed by hand
+      metadataCache.invalidate(spreadSheetId);
+      throw e;
+    }
   }
 
-  private String getRangeFormat(String name, String range) {
+  static String getRangeFormat(String name, String range) {
     return name + INTERVAL_SEPARATOR + range;
   }
 }
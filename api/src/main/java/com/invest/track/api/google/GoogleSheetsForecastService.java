@@ -5,7 +5,10 @@ import com.invest.track.model.Investment;
 import com.invest.track.model.adapter.ForecastAdapter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.function.Supplier;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -15,44 +18,54 @@ public class GoogleSheetsForecastService {
   private final String spreadSheetId;
   private final GoogleSheetsClient client;
   private final ForecastAdapter forecastAdapter;
+  private final SheetLocks sheetLocks;
 
-  private static final String FORECASTS_SHEET_NAME = "Forecasts";
-  private static final String READ_SHEET_RANGE = "A2:F";
+  static final String FORECASTS_SHEET_NAME = "Forecasts";
+  static final String READ_SHEET_RANGE = "A2:F";
   private static final String WRITE_SHEET_RANGE = "A1:F";
   private static final List<Object> FORECASTS_HEADERS =
       List.of("Forecast ID", "Investment ID", "Name", "Start Date", "End Date", "Scenario Rates");
 
-  public synchronized List<Forecast> readForecastsData(List<Investment> investments)
-      throws IOException {
-    log.info("Started reading forecasts data from Google Sheets");
-    if (!client.sheetExists(spreadSheetId, FORECASTS_SHEET_NAME)) {
-      client.createSheet(spreadSheetId, FORECASTS_SHEET_NAME);
-      return new ArrayList<>();
-    }
-    var rows = client.readSheet(spreadSheetId, FORECASTS_SHEET_NAME, READ_SHEET_RANGE);
+  List<Forecast> decodeForecasts(
+      List<List<Object>> rows, List<Investment> investments, Collection<SheetsRowError> errors) {
     if (rows == null) {
       log.debug("Forecast data not found");
       return new ArrayList<>();
     }
-    var forecasts = new ArrayList<Forecast>();
-    for (var row : rows) {
-      var forecast = forecastAdapter.fromSheetValueRange(row, investments);
-      if (forecast != null) {
-        forecasts.add(forecast);
-      }
+    var investmentsById = new HashMap<Long, Investment>();
+    for (var investment : investments) {
+      investmentsById.put(investment.getId(), investment);
     }
+    var forecasts =
+        SheetsRowDecoder.decode(
+            FORECASTS_SHEET_NAME,
+            rows,
+            row -> forecastAdapter.fromSheetValueRange(row, investmentsById),
+            errors);
     log.debug("Finished reading forecasts data");
     return forecasts;
   }
 
-  public synchronized void writeForecastsData(List<Forecast> forecasts) throws IOException {
+  // The forecasts are read once the sheet is locked, so the last write carries the latest ones
+  public void writeForecastsData(Supplier<List<Forecast>> forecasts) throws IOException {
     log.info("Started writing forecasts data to Google Sheets");
+    sheetLocks.withSheets(
+        List.of(FORECASTS_SHEET_NAME),
+        () -> {
+          writeForecasts(forecasts.get());
+          return null;
+        });
+  }
+
+  private void writeForecasts(List<Forecast> forecasts) throws IOException {
     var values = new ArrayList<List<Object>>();
     values.add(FORECASTS_HEADERS);
     for (var forecast : forecasts) {
       var row = forecastAdapter.toSheetValueRange(forecast);
       values.add(row);
     }
-    client.writeToSheet(spreadSheetId, FORECASTS_SHEET_NAME, WRITE_SHEET_RANGE, values);
+    var batch = new SheetsWriteBatch();
+    batch.write(FORECASTS_SHEET_NAME, WRITE_SHEET_RANGE, values);
+    client.executeBatch(spreadSheetId, batch);
   }
 }
@@ -34,6 +34,15 @@ public class GoogleSheetsInvestmentAdapter {
         lastEntry != null ? lastEntry.getProfitability() : "");
   }
 
+  // The last entry columns of the investments list row, from "Initial Invested Amount" onwards
+  public List<Object> toSummarySheetValueRange(Investment investment) {
+    var lastEntry = investment.getLastEntry();
+    return List.of(
+        lastEntry != null ? lastEntry.getInitialInvestedAmount() : "",
+        lastEntry != null ? lastEntry.getReinvestedAmount() : "",
+        lastEntry != null ? lastEntry.getProfitability() : "");
+  }
+
   private String parseDateTime(LocalDateTime dateTime) {
     if (dateTime == null) {
       return "";
@@ -3,79 +3,208 @@ package com.invest.track.api.google;
 import com.invest.track.model.Investment;
 import com.invest.track.model.InvestmentEntry;
 import com.invest.track.model.adapter.InvestmentEntryAdapter;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @RequiredArgsConstructor
 public class GoogleSheetsInvestmentEntriesService {
-  private final String spreadSheetId;
-  private final GoogleSheetsClient client;
   private final InvestmentEntryAdapter investmentEntryAdapter;
   private final GoogleSheetsInvestmentEntryAdapter googleSheetsInvestmentEntryAdapter;
 
-  private final String INVESTMENT_SHEET_NAME_PATTERN = "Investment entries - ";
-  private static final String READ_SHEET_RANGE = "A2:P";
+  static final String INVESTMENT_SHEET_NAME_PATTERN = "Investment entries - ";
+  static final String READ_SHEET_RANGE = "A2:P";
   private static final String WRITE_SHEET_RANGE = "A1:P";
+  private static final String APPEND_RANGE_PATTERN = "A%d:P";
   private static final List<Object> INVESTMENT_ENTRIES_HEADERS =
       List.of("Date", "Initial Invested Amount", "Reinvested Amount", "Profitability", "Comments");
 
-  public List<InvestmentEntry> readInvestmentEntries(Investment investment) throws IOException {
-    var sheetName = INVESTMENT_SHEET_NAME_PATTERN + investment.getName();
-    var existSheet = existSheet(sheetName);
-    if (!existSheet) {
-      client.createSheet(spreadSheetId, sheetName);
-      return new ArrayList<>();
-    }
-    var rows = client.readSheet(spreadSheetId, sheetName, READ_SHEET_RANGE);
+  // Data rows of each entries sheet by investment ID, as last read or written. Rows decoded to no
+  // entry, like blank ones, are counted too, as appending after the entries would overwrite them.
+  private final Map<Long, Integer> sheetRows = new ConcurrentHashMap<>();
+
+  List<InvestmentEntry> decodeInvestmentEntries(
+      List<List<Object>> rows,
+      String sheetName,
+      Investment investment,
+      Collection<SheetsRowError> errors) {
+    sheetRows.put(investment.getId(), rows == null ? 0 : rows.size());
     if (rows == null) {
-      log.debug("Investment entries data not found for sheet name \"{}\"", sheetName);
+      log.debug("Investment entries data not found for investment \"{}\"", investment.getName());
       return new ArrayList<>();
     }
-    var investmentEntries = new ArrayList<InvestmentEntry>();
-    for (var row : rows) {
-      var investmentEntry = investmentEntryAdapter.fromSheetValueRange(row, investment);
-      investmentEntries.add(investmentEntry);
+    return SheetsRowDecoder.decode(
+        sheetName,
+        rows,
+        row -> investmentEntryAdapter.fromSheetValueRange(row, investment),
+        errors);
+  }
+
+  String sheetNameOf(Investment investment) {
+    return INVESTMENT_SHEET_NAME_PATTERN + investment.getName();
+  }
+
+  // Titles are unique within a spreadsheet, so investments sharing a name add their ID to it
+  Map<Long, String> sheetNamesOf(List<Investment> investments) {
+    var investmentsByName = new HashMap<String, Integer>();
+    for (var investment : investments) {
+      investmentsByName.merge(investment.getName(), 1, Integer::sum);
+    }
+    var sheetNames = new HashMap<Long, String>();
+    for (var investment : investments) {
+      var sheetName = sheetNameOf(investment);
+      if (investmentsByName.get(investment.getName()) > 1) {
+        sheetName += " (" + investment.getId() + ")";
+      }
+      sheetNames.put(investment.getId(), sheetName);
+    }
+    return sheetNames;
+  }
+
+  /*
+   * Finds the entries sheet of each investment by its ID tag, or else by its expected title, and
+   * returns the sheet ID by investment ID for those found. Found sheets are brought in line within
+   * the batch: untagged ones are tagged, and the ones whose title is outdated, because the
+   * investment was renamed, are renamed in place instead of being written again under a new title.
+   */
+  Map<Long, Integer> resolveSheets(
+      List<Investment> investments,
+      Map<Long, String> sheetNames,
+      Map<String, Integer> existingSheets,
+      Map<Long, Integer> investmentSheets,
+      SheetsWriteBatch batch) {
+    var taggedSheetIds = new HashSet<>(investmentSheets.values());
+    var sheetIds = new HashMap<Long, Integer>();
+    for (var investment : investments) {
+      var sheetName = sheetNames.get(investment.getId());
+      var sheetId = investmentSheets.get(investment.getId());
+      if (sheetId != null) {
+        if (!sheetName.equals(titleOf(existingSheets, sheetId))) {
+          log.info(
+              "Renaming entries sheet of investment {} to \"{}\"", investment.getId(), sheetName);
+          batch.renameSheet(sheetId, sheetName);
+        }
+      } else {
+        sheetId = existingSheets.get(sheetName);
+        if (sheetId == null || taggedSheetIds.contains(sheetId)) {
+          continue;
+        }
+        log.debug("Tagging entries sheet \"{}\" with investment {}", sheetName, investment.getId());
+        batch.tagInvestmentSheet(sheetId, investment.getId());
+      }
+      sheetIds.put(investment.getId(), sheetId);
     }
-    return investmentEntries;
+    return sheetIds;
   }
 
+  /*
+   * Adds to the batch the entries sheets of the changed investments, and the new rows of the
+   * investments whose entries were only appended. Appended rows are written right after the given
+   * count of entries already in the sheet, so writing them again after a failed sync does not
+   * duplicate them. When the sheet is not known to hold exactly that many rows, it is rewritten in
+   * full instead, like the missing sheets, which are created. The sheets of every given
+   * investment are removed from the non written sheets, as they are still in use.
+   */
   public void writeInvestmentEntries(
-      List<Investment> investments, HashMap<String, Integer> nonWrittenSheets) throws IOException {
+      List<Investment> investments,
+      Set<Long> changedInvestmentIds,
+      Map<Long, Integer> appendedInvestmentIds,
+      Map<String, Integer> existingSheets,
+      Map<Long, Integer> investmentSheets,
+      HashMap<String, Integer> nonWrittenSheets,
+      SheetsWriteBatch batch) {
+    var sheetNames = sheetNamesOf(investments);
+    var sheetIds = resolveSheets(investments, sheetNames, existingSheets, investmentSheets, batch);
     for (var investment : investments) {
-      var investmentEntriesSheetName = INVESTMENT_SHEET_NAME_PATTERN + investment.getName();
-      if (!existSheet(investmentEntriesSheetName)) {
-        client.createSheet(spreadSheetId, investmentEntriesSheetName);
+      var investmentEntriesSheetName = sheetNames.get(investment.getId());
+      var sheetId = sheetIds.get(investment.getId());
+      nonWrittenSheets.values().remove(sheetId);
+      var writtenEntries = appendedInvestmentIds.get(investment.getId());
+      var changed = changedInvestmentIds.contains(investment.getId());
+      if (sheetId != null && writtenEntries != null && !changed) {
+        var rows = sheetRows.get(investment.getId());
+        if (writtenEntries.equals(rows)) {
+          appendInvestmentEntries(investment, investmentEntriesSheetName, writtenEntries, batch);
+          continue;
+        }
+        log.info(
+            "Entries sheet \"{}\" holds {} rows instead of the {} entries written, rewriting it",
+            investmentEntriesSheetName,
+            rows == null ? "unknown" : rows,
+            writtenEntries);
+      } else if (sheetId != null && !changed) {
+        log.trace("Entries of investment {} did not change, skipping", investment.getName());
+        continue;
+      }
+      if (sheetId == null) {
+        log.info(
+            "Investment entries sheet \"{}\" does not exist, creating it",
+            investmentEntriesSheetName);
+        batch.addInvestmentSheet(investmentEntriesSheetName, investment.getId());
       }
-      nonWrittenSheets.remove(investmentEntriesSheetName);
       var entries = investment.getEntries();
       if (entries == null || entries.isEmpty()) {
         log.info(
             "No investment entries found for investment {}, cleaning up sheet",
             investment.getName());
-        client.clearSheet(spreadSheetId, investmentEntriesSheetName, READ_SHEET_RANGE);
+        batch.clear(investmentEntriesSheetName, READ_SHEET_RANGE);
+        batch.entriesSheetWritten(investment.getId(), 0);
         continue;
       }
-      writeInvestmentEntriesData(entries, investmentEntriesSheetName);
+      batch.write(investmentEntriesSheetName, WRITE_SHEET_RANGE, toSheetValues(entries));
+      batch.entriesSheetWritten(investment.getId(), entries.size());
+    }
+  }
+
+  // Must be called with the outcome of every batch built by writeInvestmentEntries
+  public void batchExecuted(SheetsWriteBatch batch, boolean succeeded) {
+    if (succeeded) {
+      sheetRows.putAll(batch.getEntriesSheetRows());
+    } else {
+      // Part of the batch may have been applied, so those sheets are rewritten by the next write
+      sheetRows.keySet().removeAll(batch.getEntriesSheetRows().keySet());
     }
   }
 
-  private boolean existSheet(String sheetName) throws IOException {
-    return client.sheetExists(spreadSheetId, sheetName);
+  private static String titleOf(Map<String, Integer> sheetsByName, Integer sheetId) {
+    for (var sheet : sheetsByName.entrySet()) {
+      if (sheet.getValue().equals(sheetId)) {
+        return sheet.getKey();
+      }
+    }
+    return null;
+  }
+
+  private void appendInvestmentEntries(
+      Investment investment, String sheetName, int writtenEntries, SheetsWriteBatch batch) {
+    var entries = investment.getEntries();
+    var values = new ArrayList<List<Object>>();
+    for (var entry : entries.subList(Math.min(writtenEntries, entries.size()), entries.size())) {
+      values.add(googleSheetsInvestmentEntryAdapter.toSheetValueRange(entry));
+    }
+    log.debug("Appending {} entries to sheet \"{}\"", values.size(), sheetName);
+    if (!values.isEmpty()) {
+      // The first entry is in the row after the headers
+      batch.update(sheetName, APPEND_RANGE_PATTERN.formatted(writtenEntries + 2), values);
+    }
+    batch.entriesSheetWritten(investment.getId(), writtenEntries + values.size());
   }
 
-  public void writeInvestmentEntriesData(List<InvestmentEntry> entries, String sheetName)
-      throws IOException {
+  private List<List<Object>> toSheetValues(List<InvestmentEntry> entries) {
     var values = new ArrayList<List<Object>>();
     values.add(INVESTMENT_ENTRIES_HEADERS);
     for (var entry : entries) {
       var row = googleSheetsInvestmentEntryAdapter.toSheetValueRange(entry);
       values.add(row);
     }
-    client.writeToSheet(spreadSheetId, sheetName, WRITE_SHEET_RANGE, values);
+    return values;
   }
 }
@@ -1,14 +1,16 @@
 package com.invest.track.api.google;
 
-import static java.util.Collections.emptyList;
-
 import com.invest.track.model.Investment;
 import com.invest.track.model.adapter.InvestmentAdapter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -25,19 +27,22 @@ public class GoogleSheetsInvestmentService {
   private final InvestmentAdapter investmentAdapter;
   private final String allowlistSheetsConfig;
   private final GoogleSheetsInvestmentEntriesService investmentEntriesService;
+  private final SheetLocks sheetLocks;
 
-  // Map to store the sheet names and their corresponding IDs, so we are able to clean up them based
-  // on the sheet names that we haven't modified when writing investment data
-  private Map<String, Integer> sheetsByName;
+  // Row of each investment in the investments list, as last written by this service. Only replaced
+  // while holding the structure lock exclusively.
+  private volatile Map<Long, Integer> listRowsById = Map.of();
 
   private List<String> getAllowlistSheets() {
     return List.of(allowlistSheetsConfig.split(", *"));
   }
 
-  private static final String READ_SHEET_RANGE = "A2:P";
+  static final String READ_SHEET_RANGE = "A2:P";
   private static final String WRITE_SHEET_RANGE = "A1:P";
+  // Columns of the last entry summary, from "Initial Invested Amount" to "Profitability"
+  private static final String SUMMARY_RANGE_PATTERN = "H%d:J%d";
 
-  private final String INVESTMENTS_LIST_SHEET_NAME = "Investments List";
+  static final String INVESTMENTS_LIST_SHEET_NAME = "Investments List";
   private final List<Object> INVESTMENTS_LIST_HEADERS =
       List.of(
           "Investment ID",
@@ -51,48 +56,168 @@ public class GoogleSheetsInvestmentService {
           "Reinvested Amount",
           "Profitability");
 
-  public synchronized List<Investment> readInvestmentsData() throws IOException {
-    log.info("Started reading investments data from Google Sheets");
-    sheetsByName = client.getSheets(spreadSheetId);
-    if (!existInvestmentsListSheet()) {
-      client.createSheet(spreadSheetId, INVESTMENTS_LIST_SHEET_NAME);
-      return emptyList();
-    }
-
-    var rows = client.readSheet(spreadSheetId, INVESTMENTS_LIST_SHEET_NAME, READ_SHEET_RANGE);
+  List<Investment> decodeInvestmentsList(
+      List<List<Object>> rows, Collection<SheetsRowError> errors) {
     if (rows == null) {
       log.debug("Investment data not found");
-      return emptyList();
+      return new ArrayList<>();
+    }
+    log.info("Found {} investment rows in sheet \"{}\"", rows.size(), INVESTMENTS_LIST_SHEET_NAME);
+    var end = 0;
+    while (end < rows.size() && !rows.get(end).isEmpty()) {
+      end++;
     }
+    if (end < rows.size()) {
+      log.debug("Empty investment row found, we assume we have no more investments");
+    }
+    checkListRows(rows.subList(0, end));
+    return SheetsRowDecoder.decode(
+        INVESTMENTS_LIST_SHEET_NAME,
+        rows.subList(0, end),
+        investmentAdapter::fromSheetValueRange,
+        errors);
+  }
 
-    var investments = readInvestmentsListFromRows(rows);
-    log.debug("Finished reading investments data");
-    return investments;
+  /*
+   * The list read back may have been reordered, or had rows inserted, by hand, and the next summary
+   * update would then write into the row of another investment. In that case the rows are
+   * forgotten, so the next write rewrites the whole list instead.
+   */
+  private void checkListRows(List<List<Object>> rows) {
+    var rowsById = listRowsById;
+    if (rowsById.isEmpty() || sameRows(rows, rowsById)) {
+      return;
+    }
+    log.info("Investments list rows moved in Google Sheets, the next write rewrites the list");
+    sheetLocks.withStructure(() -> listRowsById = Map.of());
   }
 
-  private List<Investment> readInvestmentsListFromRows(List<List<Object>> rows) throws IOException {
-    var investments = new ArrayList<Investment>();
-    log.info("Found {} investment rows in sheet \"{}\"", rows.size(), INVESTMENTS_LIST_SHEET_NAME);
-    for (var row : rows) {
-      var investment = investmentAdapter.fromSheetValueRange(row);
-      if (investment == null) {
-        log.debug("Actual investment object is null, we assume we have no more investments");
-        break;
+  private static boolean sameRows(List<List<Object>> rows, Map<Long, Integer> rowsById) {
+    if (rows.size() != rowsById.size()) {
+      return false;
+    }
+    for (int i = 0; i < rows.size(); i++) {
+      var id = rows.get(i).isEmpty() ? null : idOf(rows.get(i).get(0));
+      // Rows are numbered from 1 and the first one holds the headers
+      if (!Integer.valueOf(i + 2).equals(rowsById.get(id))) {
+        return false;
       }
+    }
+    return true;
+  }
 
-      var investmentEntries = investmentEntriesService.readInvestmentEntries(investment);
-      investment.setEntries(investmentEntries);
+  private static Long idOf(Object value) {
+    if (value instanceof Number number) {
+      return number.longValue();
+    }
+    try {
+      return Long.parseLong(String.valueOf(value).trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
 
-      investments.add(investment);
+  /*
+   * Writes only the parts of the spreadsheet that changed: the investments list when requested, or
+   * else just the summary columns of the given rows, the entries sheets rewritten for the given
+   * investments, and the rows appended to the entries sheets of the investments whose entries were
+   * only appended. The investments are read once the sheets are locked, so the last write of a
+   * sheet always carries the latest data. Writes that leave the structure of the spreadsheet as it
+   * is only lock the sheets they write, while the others lock the whole structure, and also delete
+   * the sheets of investments that no longer exist.
+   */
+  public void writeInvestmentsData(
+      Supplier<List<Investment>> investments,
+      boolean writeList,
+      Set<Long> changedSummaryInvestmentIds,
+      Set<Long> changedEntriesInvestmentIds,
+      Map<Long, Integer> appendedEntriesInvestmentIds)
+      throws IOException {
+    log.info(
+        "Started writing investments data to Google Sheets, list changed: {}, summaries changed for"
+            + " investments {}, entries changed for investments {}, entries appended for"
+            + " investments {}",
+        writeList,
+        changedSummaryInvestmentIds,
+        changedEntriesInvestmentIds,
+        appendedEntriesInvestmentIds.keySet());
+
+    if (!writeList) {
+      var sheets = new HashSet<String>();
+      if (!changedSummaryInvestmentIds.isEmpty()) {
+        sheets.add(INVESTMENTS_LIST_SHEET_NAME);
+      }
+      changedEntriesInvestmentIds.forEach(id -> sheets.add(SheetLocks.entriesSheetKey(id)));
+      appendedEntriesInvestmentIds
+          .keySet()
+          .forEach(id -> sheets.add(SheetLocks.entriesSheetKey(id)));
+      var written =
+          sheetLocks.withSheetsSharingStructure(
+              sheets,
+              () ->
+                  writeInPlace(
+                      investments.get(),
+                      changedSummaryInvestmentIds,
+                      changedEntriesInvestmentIds,
+                      appendedEntriesInvestmentIds));
+      if (written) {
+        return;
+      }
+      log.debug("Writing investments data changes the structure of the spreadsheet");
     }
-    return investments;
+
+    sheetLocks.withStructure(
+        () -> {
+          writeWithStructure(
+              investments.get(),
+              writeList,
+              changedSummaryInvestmentIds,
+              changedEntriesInvestmentIds,
+              appendedEntriesInvestmentIds);
+          return null;
+        });
   }
 
-  public synchronized void writeInvestmentsData(List<Investment> investments) throws IOException {
-    log.info("Started writing investments data to Google Sheets");
+  /*
+   * Writes the changes unless they require adding, renaming or tagging a sheet, or rewriting the
+   * list. Returns whether they were written. Sheets no longer in use are left for the next write
+   * holding the structure lock.
+   */
+  private boolean writeInPlace(
+      List<Investment> investments,
+      Set<Long> changedSummaryInvestmentIds,
+      Set<Long> changedEntriesInvestmentIds,
+      Map<Long, Integer> appendedEntriesInvestmentIds)
+      throws IOException {
+    if (!listRowsById.keySet().containsAll(changedSummaryInvestmentIds)) {
+      return false;
+    }
+    var batch = new SheetsWriteBatch();
+    writeInvestmentsSummaries(investments, changedSummaryInvestmentIds, batch);
+    investmentEntriesService.writeInvestmentEntries(
+        investments,
+        changedEntriesInvestmentIds,
+        appendedEntriesInvestmentIds,
+        client.getSheets(spreadSheetId),
+        client.getInvestmentSheets(spreadSheetId),
+        new HashMap<>(),
+        batch);
+    if (batch.hasStructuralChanges()) {
+      return false;
+    }
+    executeBatch(batch);
+    return true;
+  }
 
+  private void writeWithStructure(
+      List<Investment> investments,
+      boolean writeList,
+      Set<Long> changedSummaryInvestmentIds,
+      Set<Long> changedEntriesInvestmentIds,
+      Map<Long, Integer> appendedEntriesInvestmentIds)
+      throws IOException {
     // We want to store all the sheet names that are not written to, so we can clean them up later
-    sheetsByName = client.getSheets(spreadSheetId);
+    var sheetsByName = client.getSheets(spreadSheetId);
     var nonWrittenSheets = new HashMap<>(Map.copyOf(sheetsByName));
 
     // Remove allowlist sheets from cleanup
@@ -100,17 +225,49 @@ public class GoogleSheetsInvestmentService {
       nonWrittenSheets.remove(allowSheet);
     }
 
-    writeInvestmentsList(investments, nonWrittenSheets);
+    var batch = new SheetsWriteBatch();
+    nonWrittenSheets.remove(INVESTMENTS_LIST_SHEET_NAME);
+    // The rows can only be located once this service wrote the list, as the loaded order may differ
+    var rewriteList =
+        writeList
+            || (!changedSummaryInvestmentIds.isEmpty()
+                && !listRowsById.keySet().containsAll(changedSummaryInvestmentIds));
+    if (rewriteList) {
+      writeInvestmentsList(investments, batch);
+    } else {
+      writeInvestmentsSummaries(investments, changedSummaryInvestmentIds, batch);
+    }
 
-    investmentEntriesService.writeInvestmentEntries(investments, nonWrittenSheets);
+    investmentEntriesService.writeInvestmentEntries(
+        investments,
+        changedEntriesInvestmentIds,
+        appendedEntriesInvestmentIds,
+        sheetsByName,
+        client.getInvestmentSheets(spreadSheetId),
+        nonWrittenSheets,
+        batch);
 
     if (!nonWrittenSheets.isEmpty()) {
-      cleanUpSheets(nonWrittenSheets);
+      cleanUpSheets(nonWrittenSheets, batch);
+    }
+    executeBatch(batch);
+
+    if (rewriteList) {
+      listRowsById = rowsById(investments);
+    }
+  }
+
+  private void executeBatch(SheetsWriteBatch batch) throws IOException {
+    var succeeded = false;
+    try {
+      client.executeBatch(spreadSheetId, batch);
+      succeeded = true;
+    } finally {
+      investmentEntriesService.batchExecuted(batch, succeeded);
     }
   }
 
-  private void writeInvestmentsList(
-      List<Investment> investments, HashMap<String, Integer> nonWrittenSheets) throws IOException {
+  private void writeInvestmentsList(List<Investment> investments, SheetsWriteBatch batch) {
     var investmentValues = new ArrayList<List<Object>>();
     investmentValues.add(INVESTMENTS_LIST_HEADERS);
 
@@ -119,21 +276,33 @@ public class GoogleSheetsInvestmentService {
       investmentValues.add(row);
     }
 
-    client.writeToSheet(
-        spreadSheetId, INVESTMENTS_LIST_SHEET_NAME, WRITE_SHEET_RANGE, investmentValues);
-    nonWrittenSheets.remove(INVESTMENTS_LIST_SHEET_NAME);
+    batch.write(INVESTMENTS_LIST_SHEET_NAME, WRITE_SHEET_RANGE, investmentValues);
   }
 
-  private void cleanUpSheets(HashMap<String, Integer> nonWrittenSheets) throws IOException {
-    log.info("Deprecated sheets found, cleaning them up: {}", nonWrittenSheets);
-    client.deleteSheets(spreadSheetId, nonWrittenSheets.values().stream().toList());
+  private void writeInvestmentsSummaries(
+      List<Investment> investments, Set<Long> investmentIds, SheetsWriteBatch batch) {
+    for (var investment : investments) {
+      if (!investmentIds.contains(investment.getId())) {
+        continue;
+      }
+      var row = listRowsById.get(investment.getId());
+      var values = googleSheetsInvestmentAdapter.toSummarySheetValueRange(investment);
+      batch.update(
+          INVESTMENTS_LIST_SHEET_NAME, SUMMARY_RANGE_PATTERN.formatted(row, row), List.of(values));
+    }
   }
 
-  private boolean existInvestmentsListSheet() {
-    if (sheetsByName == null) {
-      log.error("Sheet names are not loaded");
-      throw new IllegalStateException("Sheet names are not loaded");
+  // Rows are numbered from 1 and the first one holds the headers
+  private static Map<Long, Integer> rowsById(List<Investment> investments) {
+    var rows = new HashMap<Long, Integer>();
+    for (int i = 0; i < investments.size(); i++) {
+      rows.put(investments.get(i).getId(), i + 2);
     }
-    return sheetsByName.containsKey("Investments List");
+    return rows;
+  }
+
+  private void cleanUpSheets(HashMap<String, Integer> nonWrittenSheets, SheetsWriteBatch batch) {
+    log.info("Deprecated sheets found, cleaning them up: {}", nonWrittenSheets);
+    nonWrittenSheets.values().forEach(batch::deleteSheet);
   }
 }
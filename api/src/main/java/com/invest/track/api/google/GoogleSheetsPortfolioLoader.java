@@ -0,0 +1,407 @@
+package com.invest.track.api.google;
+
+import static com.invest.track.api.google.GoogleSheetsForecastService.FORECASTS_SHEET_NAME;
+import static com.invest.track.api.google.GoogleSheetsInvestmentEntriesService.INVESTMENT_SHEET_NAME_PATTERN;
+import static com.invest.track.api.google.GoogleSheetsInvestmentService.INVESTMENTS_LIST_SHEET_NAME;
+
+import com.invest.track.model.Forecast;
+import com.invest.track.model.Investment;
+import com.invest.track.model.InvestmentEntry;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Loads the whole portfolio with a fixed number of requests: the spreadsheet metadata, a single
+ * batch get of the investments list, every entries sheet and the forecasts sheet, and one request
+ * creating the sheets that are missing and tagging or renaming the entries sheets found. The
+ * entries sheets are decoded in parallel, and so are the row blocks of each sheet. Every row that
+ * fails to decode is collected into a single report, which fails the load when configured to, or
+ * else leaves those rows out. The entries of closed investments can also be left out, and loaded
+ * afterwards in batches of a single request each.
+ */
+
+@Slf4j
+@RequiredArgsConstructor
+public class GoogleSheetsPortfolioLoader {
+  private final String spreadSheetId;
+  private final GoogleSheetsClient client;
+  private final GoogleSheetsInvestmentService investmentService;
+  private final GoogleSheetsInvestmentEntriesService investmentEntriesService;
+  private final GoogleSheetsForecastService forecastService;
+  private final boolean failOnRowErrors;
+
+  private static final Comparator<SheetsRowError> ROW_ERROR_ORDER =
+      Comparator.comparing(SheetsRowError::sheetName).thenComparingInt(SheetsRowError::row);
+
+  public SheetsPortfolio load() throws IOException {
+    return load(false);
+  }
+
+  /*
+   * Loads the portfolio leaving out the entries of the closed investments, which are loaded later
+   * with loadEntries. Which entries sheets to read depends on the investments list, so the list and
+   * the forecasts are read first and the entries sheets of the active investments with a second
+   * request. The closed investments are returned with no entries and listed as deferred.
+   */
+  public SheetsPortfolio loadActive() throws IOException {
+    return load(true);
+  }
+
+  /*
+   * Loads the entries of the given investments with a single request, by investment ID. Their
+   * sheets are found by their investment ID tag, as they may have been renamed since the portfolio
+   * was loaded, and an investment with no sheet has no entries.
+   */
+  public Map<Long, List<InvestmentEntry>> loadEntries(Collection<Investment> investments)
+      throws IOException {
+    var investmentSheets = client.getInvestmentSheets(spreadSheetId);
+    var titlesBySheetId = new HashMap<Integer, String>();
+    client
+        .getSheets(spreadSheetId)
+        .forEach((title, sheetId) -> titlesBySheetId.put(sheetId, title));
+
+    var sheetNames = new HashMap<Long, String>();
+    for (var investment : investments) {
+      var sheetId = investmentSheets.get(investment.getId());
+      var sheetName = sheetId == null ? null : titlesBySheetId.get(sheetId);
+      if (sheetName != null) {
+        sheetNames.put(investment.getId(), sheetName);
+      }
+    }
+    var rowsBySheet = readSheets(sheetNames.values(), investmentSheets, titlesBySheetId);
+
+    var errors = new ConcurrentLinkedQueue<SheetsRowError>();
+    var entries = new ConcurrentHashMap<Long, List<InvestmentEntry>>();
+    investments.parallelStream()
+        .forEach(
+            investment -> {
+              var sheetName = sheetNames.get(investment.getId());
+              var rows = sheetName == null ? null : rowsBySheet.get(sheetName);
+              entries.put(
+                  investment.getId(),
+                  investmentEntriesService.decodeInvestmentEntries(
+                      rows, sheetName, investment, errors));
+            });
+    reportRowErrors(errors);
+    return entries;
+  }
+
+  /*
+   * Reads every sheet of the portfolio with a single request and decodes only the ranges whose
+   * content hash differs from the given ones, by sheet ID, so polling an unchanged spreadsheet
+   * costs one request and no parsing. Entries and forecasts are decoded for the given investments,
+   * or for the decoded list when it changed too. A range with rows that fail to decode is left out
+   * and keeps its previous hash, so the next poll reads it again.
+   */
+  public SheetsChanges loadChanges(List<Investment> current, Map<Integer, Long> previousHashes)
+      throws IOException {
+    var sheetsByName = client.getSheets(spreadSheetId);
+    var investmentSheets = client.getInvestmentSheets(spreadSheetId);
+    var titlesBySheetId = new HashMap<Integer, String>();
+    sheetsByName.forEach((title, sheetId) -> titlesBySheetId.put(sheetId, title));
+    var rowsBySheet = readSheets(sheetsByName.keySet(), investmentSheets, titlesBySheetId);
+
+    var hashes = new HashMap<Integer, Long>();
+    var changedSheets = new HashSet<String>();
+    rowsBySheet.forEach(
+        (sheetName, rows) -> {
+          var sheetId = sheetsByName.get(sheetName);
+          var hash = contentHash(rows);
+          hashes.put(sheetId, hash);
+          if (!Long.valueOf(hash).equals(previousHashes.get(sheetId))) {
+            changedSheets.add(sheetName);
+          }
+        });
+    if (changedSheets.isEmpty()) {
+      return new SheetsChanges(hashes, null, Map.of(), null);
+    }
+
+    List<Investment> investments = null;
+    if (changedSheets.contains(INVESTMENTS_LIST_SHEET_NAME)) {
+      var errors = new ArrayList<SheetsRowError>();
+      var decoded =
+          investmentService.decodeInvestmentsList(
+              rowsBySheet.get(INVESTMENTS_LIST_SHEET_NAME), errors);
+      if (accepted(INVESTMENTS_LIST_SHEET_NAME, errors, sheetsByName, hashes, previousHashes)) {
+        investments = decoded;
+      }
+    }
+    var investmentsById = new HashMap<Long, Investment>();
+    for (var investment : investments == null ? current : investments) {
+      investmentsById.put(investment.getId(), investment);
+    }
+
+    var entries = new HashMap<Long, List<InvestmentEntry>>();
+    for (var investmentSheet : investmentSheets.entrySet()) {
+      var sheetName = titlesBySheetId.get(investmentSheet.getValue());
+      var investment = investmentsById.get(investmentSheet.getKey());
+      // The sheet of an investment no longer listed is deleted by the next write
+      if (!changedSheets.contains(sheetName) || investment == null) {
+        continue;
+      }
+      var errors = new ArrayList<SheetsRowError>();
+      var decoded =
+          investmentEntriesService.decodeInvestmentEntries(
+              rowsBySheet.get(sheetName), sheetName, investment, errors);
+      if (accepted(sheetName, errors, sheetsByName, hashes, previousHashes)) {
+        entries.put(investment.getId(), decoded);
+      }
+    }
+
+    List<Forecast> forecasts = null;
+    if (changedSheets.contains(FORECASTS_SHEET_NAME)) {
+      var errors = new ArrayList<SheetsRowError>();
+      var decoded =
+          forecastService.decodeForecasts(
+              rowsBySheet.get(FORECASTS_SHEET_NAME), List.copyOf(investmentsById.values()), errors);
+      if (accepted(FORECASTS_SHEET_NAME, errors, sheetsByName, hashes, previousHashes)) {
+        forecasts = decoded;
+      }
+    }
+    return new SheetsChanges(hashes, investments, entries, forecasts);
+  }
+
+  private SheetsPortfolio load(boolean deferClosed) throws IOException {
+    log.info("Started bulk loading data from Google Sheets");
+    var sheetsByName = client.refreshSheets(spreadSheetId);
+    var investmentSheets = client.getInvestmentSheets(spreadSheetId);
+    var titlesBySheetId = new HashMap<Integer, String>();
+    sheetsByName.forEach((title, sheetId) -> titlesBySheetId.put(sheetId, title));
+    var rowsBySheet =
+        readSheets(
+            deferClosed
+                ? sheetsByName.keySet().stream()
+                    .filter(GoogleSheetsPortfolioLoader::isSharedSheet)
+                    .toList()
+                : sheetsByName.keySet(),
+            investmentSheets,
+            titlesBySheetId);
+
+    var missingSheets = new SheetsWriteBatch();
+    if (!sheetsByName.containsKey(INVESTMENTS_LIST_SHEET_NAME)) {
+      missingSheets.addSheet(INVESTMENTS_LIST_SHEET_NAME);
+    }
+    if (!sheetsByName.containsKey(FORECASTS_SHEET_NAME)) {
+      missingSheets.addSheet(FORECASTS_SHEET_NAME);
+    }
+
+    var errors = new ConcurrentLinkedQueue<SheetsRowError>();
+    var investments =
+        investmentService.decodeInvestmentsList(
+            rowsBySheet.get(INVESTMENTS_LIST_SHEET_NAME), errors);
+
+    // Sheets are found by their investment ID tag, so they are read under their current title,
+    // while legacy sheets found by title get tagged and outdated titles are fixed in the same batch
+    var sheetNames = investmentEntriesService.sheetNamesOf(investments);
+    var sheetIds =
+        investmentEntriesService.resolveSheets(
+            investments, sheetNames, sheetsByName, investmentSheets, missingSheets);
+    var readSheetNames = new HashMap<Long, String>();
+    for (var investment : investments) {
+      var sheetId = sheetIds.get(investment.getId());
+      if (sheetId == null) {
+        var sheetName = sheetNames.get(investment.getId());
+        log.info("Investment entries sheet \"{}\" does not exist, creating it", sheetName);
+        missingSheets.addInvestmentSheet(sheetName, investment.getId());
+        continue;
+      }
+      readSheetNames.put(investment.getId(), titlesBySheetId.get(sheetId));
+    }
+
+    var deferredEntries = new HashSet<Long>();
+    if (deferClosed) {
+      var activeSheetNames = new ArrayList<String>();
+      for (var investment : investments) {
+        var sheetName = readSheetNames.get(investment.getId());
+        if (sheetName == null) {
+          continue;
+        }
+        if (investment.isActive()) {
+          activeSheetNames.add(sheetName);
+        } else {
+          deferredEntries.add(investment.getId());
+        }
+      }
+      rowsBySheet.putAll(readSheets(activeSheetNames, investmentSheets, titlesBySheetId));
+    }
+
+    // Each investment only touches its own entries, so the sheets are decoded independently
+    investments.parallelStream()
+        .forEach(
+            investment -> {
+              if (deferredEntries.contains(investment.getId())) {
+                investment.setEntries(new ArrayList<>());
+                return;
+              }
+              var sheetName = readSheetNames.get(investment.getId());
+              var rows = sheetName == null ? null : rowsBySheet.get(sheetName);
+              investment.setEntries(
+                  investmentEntriesService.decodeInvestmentEntries(
+                      rows, sheetName, investment, errors));
+            });
+
+    var forecasts =
+        forecastService.decodeForecasts(rowsBySheet.get(FORECASTS_SHEET_NAME), investments, errors);
+    reportRowErrors(errors);
+
+    client.executeBatch(spreadSheetId, missingSheets);
+    log.info(
+        "Finished bulk loading {} investments and {} forecasts, {} entries sheets deferred",
+        investments.size(),
+        forecasts.size(),
+        deferredEntries.size());
+    return new SheetsPortfolio(
+        investments, forecasts, List.copyOf(errors), Set.copyOf(deferredEntries));
+  }
+
+  // Keeps the previous hash of a range that failed to decode, so it is decoded again next time
+  private static boolean accepted(
+      String sheetName,
+      List<SheetsRowError> errors,
+      Map<String, Integer> sheetsByName,
+      Map<Integer, Long> hashes,
+      Map<Integer, Long> previousHashes) {
+    if (errors.isEmpty()) {
+      return true;
+    }
+    log.warn(
+        "Ignoring the changes to sheet \"{}\" until its rows can be decoded: {}",
+        sheetName,
+        errors);
+    var sheetId = sheetsByName.get(sheetName);
+    var previousHash = previousHashes.get(sheetId);
+    if (previousHash == null) {
+      hashes.remove(sheetId);
+    } else {
+      hashes.put(sheetId, previousHash);
+    }
+    return false;
+  }
+
+  // 64-bit FNV-1a of every cell, with separators so moving a value to another cell changes it
+  static long contentHash(List<List<Object>> rows) {
+    var hash = 0xcbf29ce484222325L;
+    if (rows == null) {
+      return hash;
+    }
+    for (var row : rows) {
+      for (var cell : row) {
+        var value = String.valueOf(cell);
+        for (int i = 0; i < value.length(); i++) {
+          hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ 0x1f) * 0x100000001b3L;
+      }
+      hash = (hash ^ 0x1e) * 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private void reportRowErrors(Collection<SheetsRowError> errors) throws SheetsDecodeException {
+    if (errors.isEmpty()) {
+      return;
+    }
+    var report = errors.stream().sorted(ROW_ERROR_ORDER).toList();
+    if (failOnRowErrors) {
+      throw new SheetsDecodeException(report);
+    }
+    log.warn(
+        "Loaded the portfolio without {} rows that could not be decoded, rewriting their sheets"
+            + " will drop them: {}",
+        report.size(),
+        report);
+  }
+
+  private Map<String, List<List<Object>>> readSheets(
+      Collection<String> sheetNames,
+      Map<Long, Integer> investmentSheets,
+      Map<Integer, String> titlesBySheetId)
+      throws IOException {
+    var taggedSheetNames = new HashSet<String>();
+    for (var sheetId : investmentSheets.values()) {
+      taggedSheetNames.add(titlesBySheetId.get(sheetId));
+    }
+    var readSheetNames = new ArrayList<String>();
+    var ranges = new ArrayList<String>();
+    for (var sheetName : sheetNames) {
+      var range = readRangeOf(sheetName, taggedSheetNames);
+      if (range != null) {
+        readSheetNames.add(sheetName);
+        ranges.add(GoogleSheetsClient.getRangeFormat(sheetName, range));
+      }
+    }
+
+    var rowsBySheet = new HashMap<String, List<List<Object>>>();
+    if (ranges.isEmpty()) {
+      return rowsBySheet;
+    }
+    var valueRanges = client.batchGet(spreadSheetId, ranges);
+    for (int i = 0; i < valueRanges.size(); i++) {
+      rowsBySheet.put(readSheetNames.get(i), valueRanges.get(i).getValues());
+    }
+    return rowsBySheet;
+  }
+
+  private static boolean isSharedSheet(String sheetName) {
+    return INVESTMENTS_LIST_SHEET_NAME.equals(sheetName) || FORECASTS_SHEET_NAME.equals(sheetName);
+  }
+
+  private String readRangeOf(String sheetName, Set<String> taggedSheetNames) {
+    if (INVESTMENTS_LIST_SHEET_NAME.equals(sheetName)) {
+      return GoogleSheetsInvestmentService.READ_SHEET_RANGE;
+    }
+    if (FORECASTS_SHEET_NAME.equals(sheetName)) {
+      return GoogleSheetsForecastService.READ_SHEET_RANGE;
+    }
+    if (sheetName.startsWith(INVESTMENT_SHEET_NAME_PATTERN)
+        || taggedSheetNames.contains(sheetName)) {
+      return GoogleSheetsInvestmentEntriesService.READ_SHEET_RANGE;
+    }
+    return null;
+  }
+
+  // Only what changed is set, the investments list and the forecasts are null when unchanged
+  public record SheetsChanges(
+      Map<Integer, Long> hashes,
+      List<Investment> investments,
+      Map<Long, List<InvestmentEntry>> entries,
+      List<Forecast> forecasts) {
+
+    public boolean isEmpty() {
+      return investments == null && entries.isEmpty() && forecasts == null;
+    }
+  }
+
+  // Deferred entries are the investments loaded with no entries yet, by ID
+  public record SheetsPortfolio(
+      List<Investment> investments,
+      List<Forecast> forecasts,
+      List<SheetsRowError> errors,
+      Set<Long> deferredEntries) {
+
+    // Forecasts live in their own sheet, so they are added to their investments once loaded
+    public List<Investment> investmentsWithForecasts() {
+      for (var forecast : forecasts) {
+        var investment = forecast.getInvestment();
+        if (investment != null) {
+          if (investment.getForecasts() == null) {
+            investment.setForecasts(new ArrayList<>());
+          }
+          investment.getForecasts().add(forecast);
+        }
+      }
+      return investments;
+    }
+  }
+}
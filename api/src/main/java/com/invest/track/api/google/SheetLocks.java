@@ -0,0 +1,101 @@
+package com.invest.track.api.google;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Serializes the writes to Google Sheets per sheet, so writes to different sheets run in parallel
+ * while two writes to the same sheet never interleave. Sheet locks are taken in the order of their
+ * keys, so writes sharing several sheets cannot deadlock. Writes that add, rename, delete or tag
+ * sheets change what the others rely on to find theirs, so they hold the structure lock exclusively
+ * instead, while the writes of investment sheets hold it shared. The time spent waiting for the
+ * locks is recorded, by kind of lock.
+ */
+
+public class SheetLocks {
+  private final ReadWriteLock structureLock = new ReentrantReadWriteLock(true);
+  private final Map<String, ReentrantLock> sheetLocks = new ConcurrentHashMap<>();
+  private final Timer sheetsWaitTimer;
+  private final Timer structureWaitTimer;
+
+  public SheetLocks(MeterRegistry meterRegistry) {
+    this.sheetsWaitTimer = waitTimer("sheets", meterRegistry);
+    this.structureWaitTimer = waitTimer("structure", meterRegistry);
+  }
+
+  // Entries sheets are locked by investment ID, as their titles change when renaming investments
+  public static String entriesSheetKey(Long investmentId) {
+    return GoogleSheetsInvestmentEntriesService.INVESTMENT_SHEET_NAME_PATTERN + "#" + investmentId;
+  }
+
+  // For sheets that are never added or deleted by the service, like the forecasts one
+  public <T, E extends Exception> T withSheets(Collection<String> sheets, LockedTask<T, E> task)
+      throws E {
+    return runLocked(sheetsWaitTimer, orderedLocks(sheets), task);
+  }
+
+  // For sheets found through the structure of the spreadsheet, like the entries ones
+  public <T, E extends Exception> T withSheetsSharingStructure(
+      Collection<String> sheets, LockedTask<T, E> task) throws E {
+    var locks = new ArrayList<Lock>();
+    locks.add(structureLock.readLock());
+    locks.addAll(orderedLocks(sheets));
+    return runLocked(sheetsWaitTimer, locks, task);
+  }
+
+  public <T, E extends Exception> T withStructure(LockedTask<T, E> task) throws E {
+    return runLocked(structureWaitTimer, List.of(structureLock.writeLock()), task);
+  }
+
+  private List<Lock> orderedLocks(Collection<String> sheets) {
+    var locks = new ArrayList<Lock>();
+    for (var sheet : new TreeSet<>(sheets)) {
+      locks.add(sheetLocks.computeIfAbsent(sheet, key -> new ReentrantLock()));
+    }
+    return locks;
+  }
+
+  private static <T, E extends Exception> T runLocked(
+      Timer waitTimer, List<Lock> locks, LockedTask<T, E> task) throws E {
+    var start = System.nanoTime();
+    var acquired = 0;
+    try {
+      for (var lock : locks) {
+        lock.lock();
+        acquired++;
+      }
+      waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      return task.run();
+    } finally {
+      release(locks, acquired);
+    }
+  }
+
+  private static void release(List<Lock> locks, int acquired) {
+    for (int i = acquired - 1; i >= 0; i--) {
+      locks.get(i).unlock();
+    }
+  }
+
+  private static Timer waitTimer(String lock, MeterRegistry meterRegistry) {
+    return Timer.builder("sheets.lock.wait")
+        .description("Time spent waiting to write to Google Sheets behind other writes")
+        .tag("lock", lock)
+        .register(meterRegistry);
+  }
+
+  public interface LockedTask<T, E extends Exception> {
+    T run() throws E;
+  }
+}
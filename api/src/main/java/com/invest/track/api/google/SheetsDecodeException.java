@@ -0,0 +1,18 @@
+package com.invest.track.api.google;
+
+import java.io.IOException;
+import java.util.List;
+import lombok.Getter;
+
+// Thrown when sheet rows could not be decoded, listing every failing row instead of the first one
+
+@Getter
+public class SheetsDecodeException extends IOException {
+  private static final long serialVersionUID = 1L;
+  private final List<SheetsRowError> errors;
+
+  public SheetsDecodeException(List<SheetsRowError> errors) {
+    super(errors.size() + " rows could not be decoded: " + errors);
+    this.errors = List.copyOf(errors);
+  }
+}
@@ -0,0 +1,110 @@
+package com.invest.track.api.google;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import lombok.extern.slf4j.Slf4j;
+
+// Caches the sheets of each spreadsheet by title, and by investment ID the ones tagged with it. Our
+// own structural changes are applied to the cached copy, and entries expire after the TTL so sheets
+// added or removed by hand are seen too.
+
+@Slf4j
+class SheetsMetadataCache {
+  private final Duration ttl;
+  private final Map<String, CachedSheets> cache = new ConcurrentHashMap<>();
+
+  SheetsMetadataCache(Duration ttl) {
+    this.ttl = ttl;
+  }
+
+  Map<String, Integer> get(String spreadSheetId) {
+    var cached = fresh(spreadSheetId);
+    return cached == null ? null : cached.sheetsByName();
+  }
+
+  Map<Long, Integer> getInvestmentSheets(String spreadSheetId) {
+    var cached = fresh(spreadSheetId);
+    return cached == null ? null : cached.investmentSheets();
+  }
+
+  void put(
+      String spreadSheetId,
+      Map<String, Integer> sheetsByName,
+      Map<Long, Integer> investmentSheets) {
+    cache.put(
+        spreadSheetId,
+        new CachedSheets(
+            Map.copyOf(sheetsByName), Map.copyOf(investmentSheets), System.nanoTime()));
+  }
+
+  void sheetAdded(String spreadSheetId, String title, Integer sheetId) {
+    update(spreadSheetId, (sheetsByName, investmentSheets) -> sheetsByName.put(title, sheetId));
+  }
+
+  void sheetRenamed(String spreadSheetId, Integer sheetId, String title) {
+    update(
+        spreadSheetId,
+        (sheetsByName, investmentSheets) -> {
+          sheetsByName.values().remove(sheetId);
+          sheetsByName.put(title, sheetId);
+        });
+  }
+
+  void sheetTagged(String spreadSheetId, Integer sheetId, Long investmentId) {
+    update(
+        spreadSheetId,
+        (sheetsByName, investmentSheets) -> investmentSheets.put(investmentId, sheetId));
+  }
+
+  void sheetsDeleted(String spreadSheetId, Collection<Integer> sheetIds) {
+    update(
+        spreadSheetId,
+        (sheetsByName, investmentSheets) -> {
+          sheetsByName.values().removeAll(sheetIds);
+          investmentSheets.values().removeAll(sheetIds);
+        });
+  }
+
+  void invalidate(String spreadSheetId) {
+    log.debug("Invalidating cached sheets of spread sheet id \"{}\"", spreadSheetId);
+    cache.remove(spreadSheetId);
+  }
+
+  private CachedSheets fresh(String spreadSheetId) {
+    var cached = cache.get(spreadSheetId);
+    if (cached == null) {
+      return null;
+    }
+    if (System.nanoTime() - cached.loadedAtNanos() > ttl.toNanos()) {
+      log.debug("Cached sheets of spread sheet id \"{}\" expired", spreadSheetId);
+      cache.remove(spreadSheetId, cached);
+      return null;
+    }
+    return cached;
+  }
+
+  private void update(
+      String spreadSheetId, BiConsumer<Map<String, Integer>, Map<Long, Integer>> change) {
+    cache.computeIfPresent(
+        spreadSheetId,
+        (id, cached) -> {
+          var sheetsByName = new HashMap<>(cached.sheetsByName());
+          var investmentSheets = new HashMap<>(cached.investmentSheets());
+          change.accept(sheetsByName, investmentSheets);
+          return cached.with(sheetsByName, investmentSheets);
+        });
+  }
+
+  // Updates keep the load time, so the TTL always counts from the last real fetch
+  private record CachedSheets(
+      Map<String, Integer> sheetsByName, Map<Long, Integer> investmentSheets, long loadedAtNanos) {
+    CachedSheets with(Map<String, Integer> sheetsByName, Map<Long, Integer> investmentSheets) {
+      return new CachedSheets(
+          Map.copyOf(sheetsByName), Map.copyOf(investmentSheets), loadedAtNanos);
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package com.invest.track.api.google;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/*
+ * How cell values are rendered when reading. Formatted values are the strings shown in the sheet,
+ * which depend on its locale and number formats. Unformatted values are the numbers and booleans
+ * themselves, with dates and times as serial numbers, and the adapters decode them without parsing.
+ */
+
+@Getter
+@RequiredArgsConstructor
+public enum SheetsReadMode {
+  FORMATTED("FORMATTED_VALUE", "FORMATTED_STRING"),
+  UNFORMATTED("UNFORMATTED_VALUE", "SERIAL_NUMBER");
+
+  private final String valueRenderOption;
+  private final String dateTimeRenderOption;
+}
@@ -0,0 +1,207 @@
+package com.invest.track.api.google;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpResponseException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Runs every Google Sheets request within the API quotas. Reads and writes have separate quotas, so
+ * each waits on its own token bucket. Requests that fail with 429 or 5xx, or time out, are retried
+ * with exponential backoff and full jitter, honouring the Retry-After header when present. Calls
+ * that still fail count towards the circuit breaker, which rejects calls while open.
+ */
+
+@Slf4j
+public class SheetsRequestExecutor {
+  private final TokenBucket readQuota;
+  private final TokenBucket writeQuota;
+  private final int maxAttempts;
+  private final Duration initialBackoff;
+  private final Duration maxBackoff;
+  private final CircuitBreaker circuitBreaker;
+
+  private final Timer readThrottled;
+  private final Timer writeThrottled;
+  private final MeterRegistry meterRegistry;
+
+  public SheetsRequestExecutor(
+      TokenBucket readQuota,
+      TokenBucket writeQuota,
+      int maxAttempts,
+      Duration initialBackoff,
+      Duration maxBackoff,
+      CircuitBreaker circuitBreaker,
+      MeterRegistry meterRegistry) {
+    this.readQuota = readQuota;
+    this.writeQuota = writeQuota;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoff = initialBackoff;
+    this.maxBackoff = maxBackoff;
+    this.circuitBreaker = circuitBreaker;
+    this.meterRegistry = meterRegistry;
+    this.readThrottled = throttledTimer(Operation.READ);
+    this.writeThrottled = throttledTimer(Operation.WRITE);
+
+    Gauge.builder("sheets.client.circuit.open", circuitBreaker, cb -> cb.isOpen() ? 1 : 0)
+        .description("Whether calls to Google Sheets are being rejected by the circuit breaker")
+        .register(meterRegistry);
+  }
+
+  public <T> T read(AbstractGoogleClientRequest<T> request) throws IOException {
+    return execute(Operation.READ, request);
+  }
+
+  public <T> T write(AbstractGoogleClientRequest<T> request) throws IOException {
+    return execute(Operation.WRITE, request);
+  }
+
+  private <T> T execute(Operation operation, AbstractGoogleClientRequest<T> request)
+      throws IOException {
+    if (!circuitBreaker.tryAcquire()) {
+      rejected(operation).increment();
+      throw new SheetsUnavailableException(
+          "Google Sheets calls are suspended after repeated failures, try again later");
+    }
+
+    // Every exit must settle the call, or a trial call would leave the breaker half open for good
+    var settled = false;
+    try {
+      for (int attempt = 1; ; attempt++) {
+        throttle(operation);
+        try {
+          var response = request.execute();
+          settled = true;
+          circuitBreaker.onSuccess();
+          return response;
+        } catch (IOException e) {
+          if (!isRetryable(e)) {
+            // The request itself is wrong, which says nothing about the health of the API, so the
+            // call is released without counting as a success that would close the breaker
+            throw e;
+          }
+          if (attempt >= maxAttempts) {
+            log.warn("Giving up on {} request after {} attempts", operation, attempt);
+            settled = true;
+            circuitBreaker.onFailure();
+            throw e;
+          }
+          var delay = backoff(attempt, e);
+          log.info(
+              "{} request failed with {}, retrying in {} ms (attempt {} of {})",
+              operation,
+              statusOf(e),
+              delay.toMillis(),
+              attempt,
+              maxAttempts);
+          retries(operation, e).increment();
+          sleep(delay.toNanos());
+        }
+      }
+    } finally {
+      // Invalid, interrupted or failed unexpectedly, which says nothing about the health of the API
+      if (!settled) {
+        circuitBreaker.release();
+      }
+    }
+  }
+
+  private void throttle(Operation operation) throws IOException {
+    var quota = operation == Operation.READ ? readQuota : writeQuota;
+    var waitNanos = quota.reserve();
+    if (waitNanos > 0) {
+      log.debug("Throttling {} request for {} ms", operation, waitNanos / 1_000_000);
+      sleep(waitNanos);
+    }
+    var throttled = operation == Operation.READ ? readThrottled : writeThrottled;
+    throttled.record(waitNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private Duration backoff(int attempt, IOException e) {
+    var ceiling = initialBackoff.multipliedBy(1L << Math.min(attempt - 1, 20));
+    if (ceiling.compareTo(maxBackoff) > 0) {
+      ceiling = maxBackoff;
+    }
+    var jittered = Duration.ofNanos(ThreadLocalRandom.current().nextLong(ceiling.toNanos() + 1));
+    var retryAfter = retryAfter(e);
+    return retryAfter.compareTo(jittered) > 0 ? retryAfter : jittered;
+  }
+
+  // Only the delta seconds form is used by Google APIs
+  private static Duration retryAfter(IOException e) {
+    if (e instanceof HttpResponseException responseException
+        && responseException.getHeaders() != null
+        && responseException.getHeaders().getRetryAfter() != null) {
+      try {
+        return Duration.ofSeconds(Long.parseLong(responseException.getHeaders().getRetryAfter()));
+      } catch (NumberFormatException ignored) {
+        return Duration.ZERO;
+      }
+    }
+    return Duration.ZERO;
+  }
+
+  private static boolean isRetryable(IOException e) {
+    if (e instanceof HttpResponseException responseException) {
+      var status = responseException.getStatusCode();
+      return status == 429 || status >= 500;
+    }
+    return e instanceof SocketTimeoutException;
+  }
+
+  private static String statusOf(IOException e) {
+    if (e instanceof HttpResponseException responseException) {
+      return String.valueOf(responseException.getStatusCode());
+    }
+    return "timeout";
+  }
+
+  private static void sleep(long nanos) throws InterruptedIOException {
+    try {
+      TimeUnit.NANOSECONDS.sleep(nanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to call Google Sheets");
+    }
+  }
+
+  private Timer throttledTimer(Operation operation) {
+    return Timer.builder("sheets.client.throttled")
+        .description("Time spent waiting for Google Sheets quota before sending a request")
+        .tag("operation", operation.tag())
+        .register(meterRegistry);
+  }
+
+  private Counter retries(Operation operation, IOException e) {
+    return Counter.builder("sheets.client.retries")
+        .description("Google Sheets requests retried after a quota or server error")
+        .tag("operation", operation.tag())
+        .tag("status", statusOf(e))
+        .register(meterRegistry);
+  }
+
+  private Counter rejected(Operation operation) {
+    return Counter.builder("sheets.client.rejected")
+        .description("Google Sheets calls rejected by the open circuit breaker")
+        .tag("operation", operation.tag())
+        .register(meterRegistry);
+  }
+
+  private enum Operation {
+    READ,
+    WRITE;
+
+    String tag() {
+      return name().toLowerCase();
+    }
+  }
+}
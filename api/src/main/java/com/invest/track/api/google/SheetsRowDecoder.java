@@ -0,0 +1,107 @@
+package com.invest.track.api.google;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Decodes the rows of a sheet in blocks spread over the common ForkJoin pool, keeping their order.
+ * A row that fails to decode is skipped and reported to the given errors instead of failing the
+ * whole sheet, so a single load reports every bad row. Rows decoded to null are skipped too. The
+ * errors are collected concurrently by the blocks, and handed to the caller by row once decoded.
+ */
+
+@Slf4j
+class SheetsRowDecoder {
+  // Rows are cheap to decode, smaller blocks would cost more in scheduling than they save
+  private static final int BLOCK_SIZE = 256;
+
+  // Every read range starts right after the headers row
+  private static final int FIRST_READ_ROW = 2;
+
+  private SheetsRowDecoder() {}
+
+  static <T> List<T> decode(
+      String sheetName,
+      List<List<Object>> rows,
+      Function<List<Object>, T> decoder,
+      Collection<SheetsRowError> errors) {
+    var decoded = new Object[rows.size()];
+    var blockErrors = new ConcurrentLinkedQueue<SheetsRowError>();
+    var task = new DecodeTask<>(sheetName, rows, decoder, blockErrors, decoded, 0, rows.size());
+    if (rows.size() <= BLOCK_SIZE) {
+      task.compute();
+    } else {
+      ForkJoinPool.commonPool().invoke(task);
+    }
+    var sortedErrors = new ArrayList<>(blockErrors);
+    sortedErrors.sort(Comparator.comparingInt(SheetsRowError::row));
+    errors.addAll(sortedErrors);
+
+    var results = new ArrayList<T>(rows.size());
+    for (var value : decoded) {
+      if (value != null) {
+        @SuppressWarnings("unchecked")
+        var result = (T) value;
+        results.add(result);
+      }
+    }
+    return results;
+  }
+
+  private static class DecodeTask<T> extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final String sheetName;
+    private final List<List<Object>> rows;
+    private final Function<List<Object>, T> decoder;
+    private final Queue<SheetsRowError> errors;
+    private final Object[] decoded;
+    private final int from;
+    private final int to;
+
+    DecodeTask(
+        String sheetName,
+        List<List<Object>> rows,
+        Function<List<Object>, T> decoder,
+        Queue<SheetsRowError> errors,
+        Object[] decoded,
+        int from,
+        int to) {
+      this.sheetName = sheetName;
+      this.rows = rows;
+      this.decoder = decoder;
+      this.errors = errors;
+      this.decoded = decoded;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > BLOCK_SIZE) {
+        var middle = (from + to) >>> 1;
+        invokeAll(
+            new DecodeTask<>(sheetName, rows, decoder, errors, decoded, from, middle),
+            new DecodeTask<>(sheetName, rows, decoder, errors, decoded, middle, to));
+        return;
+      }
+      for (int i = from; i < to; i++) {
+        try {
+          decoded[i] = decoder.apply(rows.get(i));
+        } catch (RuntimeException e) {
+          var error =
+              new SheetsRowError(sheetName, FIRST_READ_ROW + i, String.valueOf(e.getMessage()));
+          log.warn("Skipping row that could not be decoded, {}", error);
+          errors.add(error);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,10 @@
+package com.invest.track.api.google;
+
+// A row that could not be decoded, with its number as shown in the sheet
+
+public record SheetsRowError(String sheetName, int row, String message) {
+  @Override
+  public String toString() {
+    return "\"" + sheetName + "\" row " + row + ": " + message;
+  }
+}
@@ -0,0 +1,13 @@
+package com.invest.track.api.google;
+
+import java.io.IOException;
+
+// Thrown without calling Google Sheets while the circuit breaker is open
+
+public class SheetsUnavailableException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  public SheetsUnavailableException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,78 @@
+package com.invest.track.api.google;
+
+import com.google.api.services.sheets.v4.model.ValueRange;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+
+// Collects the writes of a sync, so GoogleSheetsClient can send them as one structural batch
+// update, one batch clear and one batch values update, no matter how many sheets are involved
+
+@Getter
+public class SheetsWriteBatch {
+  private final List<SheetToAdd> sheetsToAdd = new ArrayList<>();
+  private final List<Integer> sheetsToDelete = new ArrayList<>();
+  private final Map<Integer, String> sheetsToRename = new LinkedHashMap<>();
+  private final Map<Integer, Long> sheetsToTag = new LinkedHashMap<>();
+  private final List<String> rangesToClear = new ArrayList<>();
+  private final List<ValueRange> valuesToWrite = new ArrayList<>();
+  // Data rows each written entries sheet holds once the batch is executed, by investment ID
+  private final Map<Long, Integer> entriesSheetRows = new LinkedHashMap<>();
+
+  public void addSheet(String title) {
+    sheetsToAdd.add(new SheetToAdd(title, null));
+  }
+
+  // Adds the sheet tagged with the investment ID, so it is found again whatever its title
+  public void addInvestmentSheet(String title, Long investmentId) {
+    sheetsToAdd.add(new SheetToAdd(title, investmentId));
+  }
+
+  public void deleteSheet(Integer sheetId) {
+    sheetsToDelete.add(sheetId);
+  }
+
+  public void renameSheet(Integer sheetId, String title) {
+    sheetsToRename.put(sheetId, title);
+  }
+
+  public void tagInvestmentSheet(Integer sheetId, Long investmentId) {
+    sheetsToTag.put(sheetId, investmentId);
+  }
+
+  public boolean hasStructuralChanges() {
+    return !sheetsToAdd.isEmpty()
+        || !sheetsToDelete.isEmpty()
+        || !sheetsToRename.isEmpty()
+        || !sheetsToTag.isEmpty();
+  }
+
+  public void clear(String sheetName, String range) {
+    rangesToClear.add(GoogleSheetsClient.getRangeFormat(sheetName, range));
+  }
+
+  // The range is cleared before writing the values, so no stale rows are left below them
+  public void write(String sheetName, String range, List<List<Object>> values) {
+    var rangeFormat = GoogleSheetsClient.getRangeFormat(sheetName, range);
+    rangesToClear.add(rangeFormat);
+    valuesToWrite.add(new ValueRange().setRange(rangeFormat).setValues(values));
+  }
+
+  // Writes the values over the range as is, leaving the rest of the sheet untouched
+  public void update(String sheetName, String range, List<List<Object>> values) {
+    var rangeFormat = GoogleSheetsClient.getRangeFormat(sheetName, range);
+    valuesToWrite.add(new ValueRange().setRange(rangeFormat).setValues(values));
+  }
+
+  public void entriesSheetWritten(Long investmentId, int rows) {
+    entriesSheetRows.put(investmentId, rows);
+  }
+
+  public boolean isEmpty() {
+    return !hasStructuralChanges() && rangesToClear.isEmpty() && valuesToWrite.isEmpty();
+  }
+
+  public record SheetToAdd(String title, Long investmentId) {}
+}
@@ -0,0 +1,44 @@
+package com.invest.track.api.google;
+
+import java.time.Duration;
+
+/*
+ * Token bucket sized to a per-minute quota. The bucket holds up to the burst size, and refills at
+ * the rate that keeps any one-minute window within the quota even right after a full burst, so
+ * callers never exceed the quota as long as they all go through the same bucket.
+ */
+
+public class TokenBucket {
+  private static final long NANOS_PER_MINUTE = Duration.ofMinutes(1).toNanos();
+
+  private final double capacity;
+  private final double tokensPerNano;
+
+  // Guarded by this. Tokens go negative when callers reserve ahead of the refill.
+  private double tokens;
+  private long lastRefillNanos;
+
+  public TokenBucket(int requestsPerMinute, int burst) {
+    if (burst < 1 || burst >= requestsPerMinute) {
+      throw new IllegalArgumentException(
+          "Burst must be at least 1 and below the quota of " + requestsPerMinute + " per minute");
+    }
+    this.capacity = burst;
+    this.tokensPerNano = (double) (requestsPerMinute - burst) / NANOS_PER_MINUTE;
+    this.tokens = burst;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  // Takes a token and returns the nanoseconds to wait before it can be used
+  public synchronized long reserve() {
+    var now = System.nanoTime();
+    tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+    lastRefillNanos = now;
+
+    tokens -= 1;
+    if (tokens >= 0) {
+      return 0;
+    }
+    return (long) Math.ceil(-tokens / tokensPerNano);
+  }
+}
@@ -1,19 +1,29 @@
 package com.invest.track.api.google.config;
 
 import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpTransport;
 import com.google.api.services.sheets.v4.Sheets;
+import com.invest.track.api.google.CircuitBreaker;
 import com.invest.track.api.google.GoogleSheetsClient;
 import com.invest.track.api.google.GoogleSheetsForecastService;
 import com.invest.track.api.google.GoogleSheetsInvestmentAdapter;
 import com.invest.track.api.google.GoogleSheetsInvestmentEntriesService;
 import com.invest.track.api.google.GoogleSheetsInvestmentEntryAdapter;
 import com.invest.track.api.google.GoogleSheetsInvestmentService;
+import com.invest.track.api.google.GoogleSheetsPortfolioLoader;
+import com.invest.track.api.google.SheetLocks;
+import com.invest.track.api.google.SheetsRequestExecutor;
+import com.invest.track.api.google.TokenBucket;
 import com.invest.track.api.google.credential.GoogleSheetsCredentialService;
+import com.invest.track.api.google.transport.JdkHttpTransport;
 import com.invest.track.model.adapter.ForecastAdapter;
 import com.invest.track.model.adapter.InvestmentAdapter;
 import com.invest.track.model.adapter.InvestmentEntryAdapter;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -31,25 +41,77 @@ public class GoogleSheetsConfiguration {
   @Value("${sheets.allowlist}")
   private String allowlistSheetsConfig;
 
+  @Value("${google.api.quota.reads-per-minute:60}")
+  private int readsPerMinute;
+
+  @Value("${google.api.quota.writes-per-minute:60}")
+  private int writesPerMinute;
+
+  @Value("${google.api.quota.burst:10}")
+  private int quotaBurst;
+
+  @Value("${google.api.retry.max-attempts:5}")
+  private int retryMaxAttempts;
+
+  @Value("${google.api.retry.initial-backoff:1s}")
+  private Duration retryInitialBackoff;
+
+  @Value("${google.api.retry.max-backoff:32s}")
+  private Duration retryMaxBackoff;
+
+  @Value("${google.api.circuit-breaker.failure-threshold:5}")
+  private int circuitBreakerFailureThreshold;
+
+  @Value("${google.api.circuit-breaker.open-duration:60s}")
+  private Duration circuitBreakerOpenDuration;
+
+  @Value("${google.api.http.transport:net}")
+  private HttpTransportType httpTransportType;
+
+  @Value("${google.api.http.connect-timeout:20s}")
+  private Duration httpConnectTimeout;
+
+  @Value("${google.api.load.fail-on-row-errors:true}")
+  private boolean failOnRowErrors;
+
   private static final String applicationName = "InvestTrack API";
 
   @Bean
-  public Sheets sheets(@Qualifier("googleLocalServerReceiver") LocalServerReceiver receiver)
+  public HttpTransport sheetsHttpTransport(MeterRegistry meterRegistry)
       throws GeneralSecurityException, IOException {
-    var credentialsService = new GoogleSheetsCredentialService(receiver);
+    if (httpTransportType == HttpTransportType.JDK) {
+      return new JdkHttpTransport(httpConnectTimeout, meterRegistry);
+    }
+    return GoogleNetHttpTransport.newTrustedTransport();
+  }
+
+  @Bean
+  public Sheets sheets(
+      @Qualifier("googleLocalServerReceiver") LocalServerReceiver receiver,
+      @Qualifier("sheetsHttpTransport") HttpTransport httpTransport)
+      throws IOException {
+    var credentialsService = new GoogleSheetsCredentialService(receiver, httpTransport);
     return credentialsService.createSheetsService(applicationName);
   }
 
+  @Bean
+  public SheetsRequestExecutor sheetsRequestExecutor(MeterRegistry meterRegistry) {
+    return new SheetsRequestExecutor(
+        new TokenBucket(readsPerMinute, quotaBurst),
+        new TokenBucket(writesPerMinute, quotaBurst),
+        retryMaxAttempts,
+        retryInitialBackoff,
+        retryMaxBackoff,
+        new CircuitBreaker(circuitBreakerFailureThreshold, circuitBreakerOpenDuration),
+        meterRegistry);
+  }
+
   @Bean
   public GoogleSheetsInvestmentEntriesService googleSheetsInvestmentEntriesService(
-      GoogleSheetsClient googleSheetsClient,
       GoogleSheetsInvestmentEntryAdapter googleSheetsInvestmentEntryAdapter,
       InvestmentEntryAdapter investmentEntryAdapter) {
     return new GoogleSheetsInvestmentEntriesService(
-        spreadSheetId,
-        googleSheetsClient,
-        investmentEntryAdapter,
-        googleSheetsInvestmentEntryAdapter);
+        investmentEntryAdapter, googleSheetsInvestmentEntryAdapter);
   }
 
   @Bean
@@ -57,19 +119,51 @@ public class GoogleSheetsConfiguration {
       GoogleSheetsClient googleSheetsClient,
       GoogleSheetsInvestmentAdapter googleSheetsInvestmentAdapter,
       InvestmentAdapter investmentAdapter,
-      GoogleSheetsInvestmentEntriesService googleSheetsInvestmentEntriesService) {
+      GoogleSheetsInvestmentEntriesService googleSheetsInvestmentEntriesService,
+      SheetLocks sheetLocks) {
     return new GoogleSheetsInvestmentService(
         spreadSheetId,
         googleSheetsClient,
         googleSheetsInvestmentAdapter,
         investmentAdapter,
         allowlistSheetsConfig,
-        googleSheetsInvestmentEntriesService);
+        googleSheetsInvestmentEntriesService,
+        sheetLocks);
   }
 
   @Bean
   public GoogleSheetsForecastService googleSheetsForecastService(
-      GoogleSheetsClient googleSheetsClient, ForecastAdapter forecastAdapter) {
-    return new GoogleSheetsForecastService(spreadSheetId, googleSheetsClient, forecastAdapter);
+      GoogleSheetsClient googleSheetsClient,
+      ForecastAdapter forecastAdapter,
+      SheetLocks sheetLocks) {
+    return new GoogleSheetsForecastService(
+        spreadSheetId, googleSheetsClient, forecastAdapter, sheetLocks);
+  }
+
+  @Bean
+  public SheetLocks sheetLocks(MeterRegistry meterRegistry) {
+    return new SheetLocks(meterRegistry);
+  }
+
+  @Bean
+  public GoogleSheetsPortfolioLoader googleSheetsPortfolioLoader(
+      GoogleSheetsClient googleSheetsClient,
+      GoogleSheetsInvestmentService googleSheetsInvestmentService,
+      GoogleSheetsInvestmentEntriesService googleSheetsInvestmentEntriesService,
+      GoogleSheetsForecastService googleSheetsForecastService) {
+    return new GoogleSheetsPortfolioLoader(
+        spreadSheetId,
+        googleSheetsClient,
+        googleSheetsInvestmentService,
+        googleSheetsInvestmentEntriesService,
+        googleSheetsForecastService,
+        failOnRowErrors);
+  }
+
+  public enum HttpTransportType {
+    // java.net.HttpURLConnection, the Google client default
+    NET,
+    // java.net.http.HttpClient, pooled and timed
+    JDK
   }
 }
@@ -1,14 +1,261 @@
 package com.invest.track.api.google.config;
 
+import com.invest.track.api.google.GoogleSheetsForecastService;
+import com.invest.track.api.google.GoogleSheetsInvestmentService;
+import com.invest.track.api.google.GoogleSheetsPortfolioLoader;
+import com.invest.track.repository.InvestmentRepository;
+import com.invest.track.repository.journal.FileJournal;
+import com.invest.track.repository.journal.JdbcJournal;
+import com.invest.track.repository.journal.PortfolioJournal;
+import com.invest.track.repository.journal.PortfolioJournal.Store;
+import com.invest.track.repository.snapshot.SnapshotFile;
+import com.invest.track.service.EntriesLoadingService;
+import com.invest.track.service.PortfolioReloadService;
+import com.invest.track.service.SheetsReconcileService;
+import com.invest.track.service.SheetsSyncService;
+import com.invest.track.service.SheetsSyncService.SyncMode;
+import com.invest.track.service.SnapshotService;
 import com.invest.track.service.SummaryService;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+@Slf4j
 @Configuration
 public class InvestmentsConfiguration {
 
+  @Value("${sheets.sync.mode:write-through}")
+  private SyncMode syncMode;
+
+  @Value("${sheets.sync.debounce:500ms}")
+  private Duration syncDebounce;
+
+  @Value("${sheets.sync.max-staleness:5s}")
+  private Duration syncMaxStaleness;
+
+  @Value("${sheets.sync.retry-delay:30s}")
+  private Duration syncRetryDelay;
+
+  @Value("${sheets.sync.write-parallelism:4}")
+  private int syncWriteParallelism;
+
+  @Value("${sheets.reconcile.enabled:true}")
+  private boolean reconcileEnabled;
+
+  @Value("${sheets.reconcile.interval:1m}")
+  private Duration reconcileInterval;
+
+  @Value("${journal.enabled:false}")
+  private boolean journalEnabled;
+
+  @Value("${journal.store:file}")
+  private Store journalStore;
+
+  @Value("${journal.path:data/journal.log}")
+  private Path journalPath;
+
+  @Value("${journal.group-commit-window:0ms}")
+  private Duration journalGroupCommitWindow;
+
+  @Value("${journal.max-group-size:512}")
+  private int journalMaxGroupSize;
+
+  @Value("${journal.compact-after-records:10000}")
+  private int journalCompactAfterRecords;
+
+  @Value("${journal.jdbc.url:jdbc:h2:file:./data/portfolio;MODE=MySQL;DATABASE_TO_LOWER=TRUE}")
+  private String journalJdbcUrl;
+
+  @Value("${journal.jdbc.username:}")
+  private String journalJdbcUsername;
+
+  @Value("${journal.jdbc.password:}")
+  private String journalJdbcPassword;
+
+  @Value("${journal.jdbc.pool-size:2}")
+  private int journalJdbcPoolSize;
+
+  @Value("${google.api.load.defer-closed-entries:true}")
+  private boolean deferClosedEntries;
+
+  @Value("${google.api.load.warm-up-batch-size:20}")
+  private int warmUpBatchSize;
+
+  @Value("${google.api.load.warm-up-retry-delay:30s}")
+  private Duration warmUpRetryDelay;
+
+  @Value("${snapshot.enabled:false}")
+  private boolean snapshotEnabled;
+
+  @Value("${snapshot.path:data/portfolio.snapshot}")
+  private Path snapshotPath;
+
+  @Value("${snapshot.interval:1m}")
+  private Duration snapshotInterval;
+
   @Bean
   public SummaryService summaryService() {
     return new SummaryService();
   }
+
+  @Bean(destroyMethod = "close")
+  public PortfolioJournal portfolioJournal(MeterRegistry meterRegistry) {
+    if (!journalEnabled) {
+      log.info("Journal disabled, Google Sheets is the only durable copy of the portfolio");
+      return PortfolioJournal.disabled();
+    }
+    if (journalStore == Store.JDBC) {
+      log.info("Journaling portfolio changes to the database at {}", journalJdbcUrl);
+      return new JdbcJournal(
+          journalDataSource(), journalGroupCommitWindow, journalMaxGroupSize, meterRegistry);
+    }
+    log.info("Journaling portfolio changes to {}", journalPath.toAbsolutePath());
+    return new FileJournal(
+        journalPath,
+        journalGroupCommitWindow,
+        journalMaxGroupSize,
+        journalCompactAfterRecords,
+        meterRegistry);
+  }
+
+  // Owned by the journal, which closes it, rather than exposed as a bean of its own
+  private HikariDataSource journalDataSource() {
+    var config = new HikariConfig();
+    config.setPoolName("journal");
+    config.setJdbcUrl(journalJdbcUrl);
+    config.setUsername(journalJdbcUsername);
+    config.setPassword(journalJdbcPassword);
+    config.setMaximumPoolSize(journalJdbcPoolSize);
+    if (journalJdbcUrl.startsWith("jdbc:mysql:")) {
+      // Reuses prepared statements across connections and sends each batch as one statement
+      config.addDataSourceProperty("cachePrepStmts", "true");
+      config.addDataSourceProperty("prepStmtCacheSize", "64");
+      config.addDataSourceProperty("useServerPrepStmts", "true");
+      config.addDataSourceProperty("rewriteBatchedStatements", "true");
+    }
+    return new HikariDataSource(config);
+  }
+
+  /*
+   * With the journal enabled every load is journaled as complete, so the entries of closed
+   * investments are loaded eagerly, while the journal already spares the full load on later starts.
+   */
+  @Bean
+  public EntriesLoadingService entriesLoadingService(
+      InvestmentRepository investmentRepository, GoogleSheetsPortfolioLoader portfolioLoader) {
+    var defer = deferClosedEntries && !journalEnabled;
+    if (deferClosedEntries && journalEnabled) {
+      log.info("Loading the entries of closed investments eagerly, as the journal is enabled");
+    }
+    return new EntriesLoadingService(
+        investmentRepository, portfolioLoader, defer, warmUpBatchSize, warmUpRetryDelay);
+  }
+
+  // Reported in the readiness group, which is up once the active investments are loaded
+  @Bean
+  public HealthIndicator entriesLoadingHealthIndicator(
+      EntriesLoadingService entriesLoadingService) {
+    return () -> {
+      var progress = entriesLoadingService.progress();
+      return Health.up()
+          .withDetail("state", progress.complete() ? "loaded" : "loading")
+          .withDetail("deferredInvestments", progress.deferred())
+          .withDetail("loadedInvestments", progress.loaded())
+          .withDetail("pendingInvestments", progress.pending())
+          .withDetail("failedAttempts", progress.failedAttempts())
+          .withDetail("elapsed", progress.elapsed().toString())
+          .build();
+    };
+  }
+
+  @Bean
+  public SnapshotService snapshotService(
+      InvestmentRepository investmentRepository, GoogleSheetsPortfolioLoader portfolioLoader) {
+    var snapshotFile = snapshotEnabled ? new SnapshotFile(snapshotPath) : null;
+    if (snapshotFile != null) {
+      log.info("Writing portfolio snapshots to {}", snapshotPath.toAbsolutePath());
+    }
+    return new SnapshotService(
+        snapshotFile, investmentRepository, portfolioLoader, snapshotInterval);
+  }
+
+  @Bean
+  public SheetsSyncService sheetsSyncService(
+      GoogleSheetsInvestmentService googleSheetsInvestmentService,
+      GoogleSheetsForecastService googleSheetsForecastService,
+      InvestmentRepository investmentRepository,
+      MeterRegistry meterRegistry) {
+    var sheetsSyncService =
+        new SheetsSyncService(
+            googleSheetsInvestmentService,
+            googleSheetsForecastService,
+            investmentRepository,
+            syncMode,
+            syncDebounce,
+            syncMaxStaleness,
+            syncRetryDelay,
+            Executors.newFixedThreadPool(syncWriteParallelism, sheetsWriterThreadFactory()));
+
+    Gauge.builder("sheets.sync.queue.depth", sheetsSyncService, SheetsSyncService::getPendingSyncs)
+        .description("Syncs requested or retried and not yet written to Google Sheets")
+        .register(meterRegistry);
+    return sheetsSyncService;
+  }
+
+  @Bean
+  public SheetsReconcileService sheetsReconcileService(
+      InvestmentRepository investmentRepository,
+      GoogleSheetsPortfolioLoader portfolioLoader,
+      SheetsSyncService sheetsSyncService) {
+    return new SheetsReconcileService(
+        investmentRepository,
+        portfolioLoader,
+        sheetsSyncService,
+        reconcileEnabled,
+        reconcileInterval);
+  }
+
+  @Bean
+  public PortfolioReloadService portfolioReloadService(
+      InvestmentRepository investmentRepository,
+      GoogleSheetsPortfolioLoader portfolioLoader,
+      SheetsSyncService sheetsSyncService) {
+    return new PortfolioReloadService(investmentRepository, portfolioLoader, sheetsSyncService);
+  }
+
+  // Writers spend their time waiting on the network, which virtual threads do for free. They were
+  // added in Java 21, so they are looked up reflectively and platform threads are used before.
+  private static ThreadFactory sheetsWriterThreadFactory() {
+    try {
+      // The builder implementation is not public, so its methods are called through the interface
+      var builderType = Class.forName("java.lang.Thread$Builder");
+      var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder =
+          builderType
+              .getMethod("name", String.class, long.class)
+              .invoke(builder, "sheets-writer-", 0L);
+      var factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+      log.info("Writing to Google Sheets on virtual threads");
+      return factory;
+    } catch (ReflectiveOperationException e) {
+      var count = new AtomicInteger();
+      return runnable -> {
+        var thread = new Thread(runnable, "sheets-writer-" + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
+  }
 }
@@ -1,6 +1,5 @@
 package com.invest.track.api.google.credential;
 
-import static com.google.api.client.googleapis.javanet.GoogleNetHttpTransport.newTrustedTransport;
 import static java.nio.file.Files.exists;
 import static java.nio.file.Files.readString;
 import static java.util.Collections.singletonList;
@@ -9,7 +8,7 @@ import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
-import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.client.util.store.FileDataStoreFactory;
 import com.google.api.services.sheets.v4.Sheets;
@@ -21,7 +20,6 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.nio.file.Paths;
-import java.security.GeneralSecurityException;
 import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -32,6 +30,7 @@ import org.springframework.stereotype.Service;
 public class GoogleSheetsCredentialService {
 
   private final LocalServerReceiver receiver;
+  private final HttpTransport httpTransport;
 
   private static final String CREDENTIALS_RES_PATH = "credentials";
   private static final String CREDENTIALS_FILE_NAME = "credentials.json";
@@ -40,12 +39,13 @@ public class GoogleSheetsCredentialService {
   private static final List<String> SCOPES = singletonList(SheetsScopes.SPREADSHEETS);
 
   public GoogleSheetsCredentialService(
-      @Qualifier("googleLocalServerReceiver") LocalServerReceiver receiver) {
+      @Qualifier("googleLocalServerReceiver") LocalServerReceiver receiver,
+      @Qualifier("sheetsHttpTransport") HttpTransport httpTransport) {
     this.receiver = receiver;
+    this.httpTransport = httpTransport;
   }
 
-  public Sheets createSheetsService(String applicationName)
-      throws GeneralSecurityException, IOException {
+  public Sheets createSheetsService(String applicationName) throws IOException {
     log.info("Creating Google Sheets service credentials");
     var jsonFactory = GsonFactory.getDefaultInstance();
     var httpTransport = getHttpTransport();
@@ -63,7 +63,7 @@ public class GoogleSheetsCredentialService {
    * @return An authorized Credential object.
    * @throws IOException If the credentials.json file cannot be found.
    */
-  protected Credential getCredentials(final NetHttpTransport HTTP_TRANSPORT) throws IOException {
+  protected Credential getCredentials(final HttpTransport HTTP_TRANSPORT) throws IOException {
     var jsonFactory = GsonFactory.getDefaultInstance();
 
     var credentialsInputStreamReader = getCredentialsInputStreamReader();
@@ -150,8 +150,8 @@ public class GoogleSheetsCredentialService {
     return getFileDataStoreFactory(resPath);
   }
 
-  protected NetHttpTransport getHttpTransport() throws GeneralSecurityException, IOException {
-    return newTrustedTransport();
+  protected HttpTransport getHttpTransport() {
+    return httpTransport;
   }
 
   protected InputStream getCredentialsInputStream(String path) {
@@ -0,0 +1,79 @@
+package com.invest.track.api.google.transport;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Times every HTTP call: until the response headers arrive (time to first byte, which includes
+ * opening a connection when none can be reused) and until the body has been read. HttpClient does
+ * not expose connection setup on its own, so a call slower to first byte than its peers is the sign
+ * of a new connection.
+ */
+
+@Slf4j
+class HttpCallTimings {
+  private final MeterRegistry meterRegistry;
+
+  HttpCallTimings(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  Call start(String method, URI uri) {
+    return new Call(method, uri, System.nanoTime());
+  }
+
+  private Timer timer(String name, String description, String method, String status) {
+    return Timer.builder(name)
+        .description(description)
+        .tag("method", method)
+        .tag("status", status)
+        .register(meterRegistry);
+  }
+
+  class Call {
+    private final String method;
+    private final URI uri;
+    private final long startNanos;
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private long firstByteNanos;
+    private String status = "none";
+
+    private Call(String method, URI uri, long startNanos) {
+      this.method = method;
+      this.uri = uri;
+      this.startNanos = startNanos;
+    }
+
+    void firstByte(int statusCode) {
+      firstByteNanos = System.nanoTime() - startNanos;
+      status = String.valueOf(statusCode);
+      timer("sheets.http.ttfb", "Time until the response headers arrive", method, status)
+          .record(firstByteNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void completed() {
+      if (!completed.compareAndSet(false, true)) {
+        return;
+      }
+      var totalNanos = System.nanoTime() - startNanos;
+      timer("sheets.http.total", "Time until the response body is read", method, status)
+          .record(totalNanos, TimeUnit.NANOSECONDS);
+      log.debug(
+          "{} {} returned {}, first byte after {} ms, total {} ms",
+          method,
+          uri.getPath(),
+          status,
+          TimeUnit.NANOSECONDS.toMillis(firstByteNanos),
+          TimeUnit.NANOSECONDS.toMillis(totalNanos));
+    }
+
+    void failed() {
+      status = "error";
+      completed();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.invest.track.api.google.transport;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Set;
+
+class JdkHttpRequest extends LowLevelHttpRequest {
+  // Managed by HttpClient itself, which rejects them when set by hand
+  private static final Set<String> RESTRICTED_HEADERS =
+      Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+  private final HttpClient httpClient;
+  private final HttpCallTimings timings;
+  private final String method;
+  private final HttpRequest.Builder builder;
+
+  JdkHttpRequest(HttpClient httpClient, HttpCallTimings timings, String method, URI uri) {
+    this.httpClient = httpClient;
+    this.timings = timings;
+    this.method = method;
+    this.builder = HttpRequest.newBuilder(uri);
+  }
+
+  @Override
+  public void addHeader(String name, String value) {
+    if (!RESTRICTED_HEADERS.contains(name.toLowerCase())) {
+      builder.header(name, value);
+    }
+  }
+
+  // The connect timeout belongs to the shared client, here only the response wait is bounded
+  @Override
+  public void setTimeout(int connectTimeout, int readTimeout) {
+    if (readTimeout > 0) {
+      builder.timeout(Duration.ofMillis(readTimeout));
+    }
+  }
+
+  @Override
+  public JdkHttpResponse execute() throws IOException {
+    if (getContentType() != null) {
+      builder.header("Content-Type", getContentType());
+    }
+    if (getContentEncoding() != null) {
+      builder.header("Content-Encoding", getContentEncoding());
+    }
+    var body = BodyPublishers.noBody();
+    if (getStreamingContent() != null) {
+      var content = new ByteArrayOutputStream();
+      getStreamingContent().writeTo(content);
+      body = BodyPublishers.ofByteArray(content.toByteArray());
+    }
+    var request = builder.method(method, body).build();
+
+    var call = timings.start(method, request.uri());
+    try {
+      // Returns as soon as the headers arrive, the body is streamed while it is read
+      var response = httpClient.send(request, BodyHandlers.ofInputStream());
+      call.firstByte(response.statusCode());
+      return new JdkHttpResponse(response, call);
+    } catch (InterruptedException e) {
+      call.failed();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while calling " + request.uri().getHost());
+    } catch (HttpTimeoutException e) {
+      // Reported like the default transport does, so retries and the circuit breaker see a timeout
+      call.failed();
+      var timeout = new SocketTimeoutException(e.getMessage());
+      timeout.initCause(e);
+      throw timeout;
+    } catch (IOException e) {
+      call.failed();
+      throw e;
+    }
+  }
+}
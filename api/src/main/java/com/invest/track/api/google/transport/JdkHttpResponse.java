@@ -0,0 +1,122 @@
+package com.invest.track.api.google.transport;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+class JdkHttpResponse extends LowLevelHttpResponse {
+  private final HttpResponse<InputStream> response;
+  private final HttpCallTimings.Call call;
+  private final InputStream content;
+  private final List<String> headerNames = new ArrayList<>();
+  private final List<String> headerValues = new ArrayList<>();
+
+  JdkHttpResponse(HttpResponse<InputStream> response, HttpCallTimings.Call call) {
+    this.response = response;
+    this.call = call;
+    this.content = new TimedInputStream(response.body());
+    response
+        .headers()
+        .map()
+        .forEach(
+            (name, values) ->
+                values.forEach(
+                    value -> {
+                      headerNames.add(name);
+                      headerValues.add(value);
+                    }));
+  }
+
+  @Override
+  public InputStream getContent() {
+    return content;
+  }
+
+  @Override
+  public String getContentEncoding() {
+    return response.headers().firstValue("Content-Encoding").orElse(null);
+  }
+
+  @Override
+  public long getContentLength() {
+    return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+  }
+
+  @Override
+  public String getContentType() {
+    return response.headers().firstValue("Content-Type").orElse(null);
+  }
+
+  @Override
+  public String getStatusLine() {
+    var version = response.version() == HttpClient.Version.HTTP_2 ? "HTTP/2" : "HTTP/1.1";
+    return version + " " + response.statusCode();
+  }
+
+  @Override
+  public int getStatusCode() {
+    return response.statusCode();
+  }
+
+  // HTTP/2 has no reason phrase
+  @Override
+  public String getReasonPhrase() {
+    return null;
+  }
+
+  @Override
+  public int getHeaderCount() {
+    return headerNames.size();
+  }
+
+  @Override
+  public String getHeaderName(int index) {
+    return headerNames.get(index);
+  }
+
+  @Override
+  public String getHeaderValue(int index) {
+    return headerValues.get(index);
+  }
+
+  @Override
+  public void disconnect() throws IOException {
+    content.close();
+  }
+
+  // Ends the timing of the call once the body has been read or closed
+  private class TimedInputStream extends FilterInputStream {
+    TimedInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      var read = super.read();
+      if (read == -1) {
+        call.completed();
+      }
+      return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      var read = super.read(buffer, offset, length);
+      if (read == -1) {
+        call.completed();
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      call.completed();
+      super.close();
+    }
+  }
+}
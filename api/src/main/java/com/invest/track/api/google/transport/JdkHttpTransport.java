@@ -0,0 +1,43 @@
+package com.invest.track.api.google.transport;
+
+import com.google.api.client.http.HttpTransport;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Google HTTP transport on top of java.net.http.HttpClient. A single client is shared by every
+ * request, so connections are kept alive and reused, and with HTTP/2 requests to the same host are
+ * multiplexed over one connection. The socket I/O runs on the client's own non-blocking selector,
+ * requests only wait for its completion. Compression needs nothing from the transport: the Google
+ * client gzips request bodies and decompresses gzip responses, which are passed through untouched.
+ */
+
+@Slf4j
+public class JdkHttpTransport extends HttpTransport {
+  private final HttpClient httpClient;
+  private final HttpCallTimings timings;
+
+  public JdkHttpTransport(Duration connectTimeout, MeterRegistry meterRegistry) {
+    this.httpClient =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(connectTimeout)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+    this.timings = new HttpCallTimings(meterRegistry);
+    log.info("Using java.net.http.HttpClient transport for Google APIs");
+  }
+
+  @Override
+  public boolean supportsMethod(String method) {
+    return true;
+  }
+
+  @Override
+  protected JdkHttpRequest buildRequest(String method, String url) {
+    return new JdkHttpRequest(httpClient, timings, method, URI.create(url));
+  }
+}
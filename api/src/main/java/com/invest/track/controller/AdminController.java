@@ -0,0 +1,43 @@
+package com.invest.track.controller;
+
+import static org.springframework.http.HttpStatus.ACCEPTED;
+import static org.springframework.http.HttpStatus.CONFLICT;
+import static org.springframework.http.HttpStatus.OK;
+
+import com.invest.track.service.PortfolioReloadService;
+import com.invest.track.service.PortfolioReloadService.ReloadStatus;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@Slf4j
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+  private final PortfolioReloadService portfolioReloadService;
+
+  /*
+   * Reloads the portfolio from Google Sheets in the background, answering right away. The status
+   * of the reload is then available through the GET endpoint.
+   */
+  @PostMapping("/reload")
+  public ResponseEntity<ReloadStatus> reload() {
+    log.info("Reload endpoint called");
+    if (!portfolioReloadService.reload()) {
+      log.debug("Answering with conflict to reload call, as a reload is already running");
+      return new ResponseEntity<>(portfolioReloadService.status(), CONFLICT);
+    }
+    return new ResponseEntity<>(portfolioReloadService.status(), ACCEPTED);
+  }
+
+  @GetMapping("/reload")
+  public ResponseEntity<ReloadStatus> getReloadStatus() {
+    log.info("Get reload status endpoint called");
+    return new ResponseEntity<>(portfolioReloadService.status(), OK);
+  }
+}
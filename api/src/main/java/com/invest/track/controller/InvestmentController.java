@@ -146,11 +146,7 @@ public class InvestmentController {
   @GetMapping("/forecast/{investmentId}")
   public ResponseEntity<List<Forecast>> getForecasts(@PathVariable Long investmentId) {
     log.info("Get forecasts endpoint called for investment {}", investmentId);
-    var forecasts =
-        investmentService.getForecasts().stream()
-            .filter(
-                f -> f.getInvestment() != null && f.getInvestment().getId().equals(investmentId))
-            .toList();
+    var forecasts = investmentService.getForecasts(investmentId);
 
     if (forecasts.isEmpty()) {
       return ResponseEntity.noContent().build();
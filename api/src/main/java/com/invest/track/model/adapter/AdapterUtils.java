@@ -1,11 +1,11 @@
 package com.invest.track.model.adapter;
 
-import static java.time.format.DateTimeFormatter.ofPattern;
-
 import java.time.DateTimeException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
@@ -14,11 +14,22 @@ import org.springframework.stereotype.Component;
 public class AdapterUtils {
   // Google Sheets date time format
   // TODO (Marc. A): Extract to a common class with the GoogleSheetsAdapter
-  private static final List<String> DATE_FORMATTERS =
-      List.of(
-          "dd/MM/yyyy HH:mm:ss", "dd/MM/yyyy H:mm:ss", "d/MM/yyyy HH:mm:ss", "d/MM/yyyy H:mm:ss");
+  private static final List<DateTimeFormatter> DATE_FORMATTERS =
+      Stream.of(
+              "dd/MM/yyyy HH:mm:ss",
+              "dd/MM/yyyy H:mm:ss",
+              "d/MM/yyyy HH:mm:ss",
+              "d/MM/yyyy H:mm:ss")
+          .map(DateTimeFormatter::ofPattern)
+          .toList();
+
+  private static final LocalDateTime SERIAL_NUMBER_EPOCH = LocalDateTime.of(1899, 12, 30, 0, 0);
+  private static final long SECONDS_PER_DAY = 24 * 60 * 60;
 
   public LocalDate parseLocalDate(Object value) {
+    if (value instanceof Number serialNumber) {
+      return fromSerialNumber(serialNumber).toLocalDate();
+    }
     var str = parseString(value);
     if (str.isEmpty()) return null;
     try {
@@ -34,6 +45,9 @@ public class AdapterUtils {
   }
 
   public Long parseLong(Object value) {
+    if (value instanceof Number number) {
+      return number.longValue();
+    }
     var str = parseString(value);
     try {
       return Long.parseLong(str);
@@ -44,7 +58,14 @@ public class AdapterUtils {
   }
 
   public Double parseCurrencyDouble(Object value) {
+    if (value instanceof Number number) {
+      return number.doubleValue();
+    }
     var str = parseString(value);
+    var parsed = SheetValueParser.parseCurrency(str);
+    if (!Double.isNaN(parsed)) {
+      return parsed;
+    }
 
     // E.g. "3.147,21 €" will become 3147.21
     var sanitizedCurrency = str.replace(".", "").replace("€", "");
@@ -58,8 +79,16 @@ public class AdapterUtils {
     }
   }
 
+  // Unformatted percentages are already fractions, e.g. 0.05 for a cell showing "5 %"
   public Double parsePercentageDouble(Object value) {
+    if (value instanceof Number number) {
+      return number.doubleValue();
+    }
     var str = parseString(value);
+    var parsed = SheetValueParser.parsePercentage(str);
+    if (!Double.isNaN(parsed)) {
+      return parsed;
+    }
     var absolutePercentage = true;
 
     if (str.contains("%")) {
@@ -83,13 +112,21 @@ public class AdapterUtils {
   }
 
   public LocalDateTime parseDateTime(Object value) {
+    if (value instanceof Number serialNumber) {
+      return fromSerialNumber(serialNumber);
+    }
     var str = parseString(value);
     if (str.isEmpty()) {
       return null;
     }
+    var parsed = SheetValueParser.parseDateTime(str);
+    if (parsed != null) {
+      return parsed;
+    }
+    // Only values the fast path does not recognise reach the formatters
     for (var formatter : DATE_FORMATTERS) {
       try {
-        return LocalDateTime.parse(str, ofPattern(formatter));
+        return LocalDateTime.parse(str, formatter);
       } catch (DateTimeException e) {
         log.trace("Failed to parse date time value \"{}\" with formatter \"{}\"", str, formatter);
       }
@@ -99,10 +136,24 @@ public class AdapterUtils {
   }
 
   public Boolean parseBoolean(Object value) {
+    if (value instanceof Boolean bool) {
+      return bool;
+    }
     var str = parseString(value);
     return Boolean.parseBoolean(str);
   }
 
+  /*
+   * Google Sheets serial numbers count days since 1899-12-30, with the time of day as the fraction.
+   * Sheets keeps times to the second, so the fraction is rounded to whole seconds.
+   */
+  private LocalDateTime fromSerialNumber(Number serialNumber) {
+    var serial = serialNumber.doubleValue();
+    var days = (long) Math.floor(serial);
+    var seconds = Math.round((serial - days) * SECONDS_PER_DAY);
+    return SERIAL_NUMBER_EPOCH.plusDays(days).plusSeconds(seconds);
+  }
+
   public String parseString(Object value) {
     return value == null ? "" : value.toString();
   }
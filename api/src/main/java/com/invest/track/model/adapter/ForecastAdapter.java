@@ -17,7 +17,8 @@ import org.springframework.stereotype.Component;
 public class ForecastAdapter {
   private final AdapterUtils adapterUtils;
 
-  public Forecast fromSheetValueRange(List<Object> valueRange, List<Investment> investments) {
+  public Forecast fromSheetValueRange(
+      List<Object> valueRange, Map<Long, Investment> investmentsById) {
     if (valueRange.isEmpty()) return null;
 
     var id = adapterUtils.parseLong(valueRange.get(0));
@@ -28,11 +29,7 @@ public class ForecastAdapter {
     var scenarioRates = parseScenarioRates(adapterUtils.parseString(valueRange.get(5)));
     return Forecast.builder()
         .id(id)
-        .investment(
-            investments.stream()
-                .filter(inv -> inv.getId() != null && inv.getId().equals(investmentId))
-                .findFirst()
-                .orElse(null))
+        .investment(investmentsById.get(investmentId))
         .name(name)
         .startDate(startDate)
         .endDate(endDate)
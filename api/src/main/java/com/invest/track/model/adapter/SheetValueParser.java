@@ -0,0 +1,145 @@
+package com.invest.track.model.adapter;
+
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
+
+/*
+ * Single pass parsers for the values Google Sheets shows in a Spanish locale. They read the text in
+ * place, without intermediate strings, formatters or exceptions, and return null or NaN for any
+ * text outside the common shapes, which the caller then hands to the general parsers.
+ */
+
+final class SheetValueParser {
+  // Fields of "d/MM/yyyy H:mm:ss" in order: the digits each one takes and the separator after it
+  private static final int[] MIN_DIGITS = {1, 2, 4, 1, 2, 2};
+  private static final int[] MAX_DIGITS = {2, 2, 4, 2, 2, 2};
+  private static final char[] SEPARATORS = {'/', '/', ' ', ':', ':'};
+
+  // Doubles represent every integer up to 2^53 and every power of ten up to 10^22 exactly, so
+  // dividing one by the other is correctly rounded, the same result as Double.parseDouble
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+    1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private SheetValueParser() {}
+
+  // Parses "dd/MM/yyyy HH:mm:ss" with one or two digit days and hours
+  static LocalDateTime parseDateTime(CharSequence text) {
+    var length = text.length();
+    var position = 0;
+    int day = 0, month = 0, year = 0, hour = 0, minute = 0, second = 0;
+
+    for (int field = 0; field < MIN_DIGITS.length; field++) {
+      var value = 0;
+      var digits = 0;
+      while (position < length && digits < MAX_DIGITS[field]) {
+        var c = text.charAt(position);
+        if (c < '0' || c > '9') {
+          break;
+        }
+        value = value * 10 + (c - '0');
+        digits++;
+        position++;
+      }
+      if (digits < MIN_DIGITS[field]) {
+        return null;
+      }
+      if (field < SEPARATORS.length) {
+        if (position >= length || text.charAt(position) != SEPARATORS[field]) {
+          return null;
+        }
+        position++;
+      }
+      switch (field) {
+        case 0 -> day = value;
+        case 1 -> month = value;
+        case 2 -> year = value;
+        case 3 -> hour = value;
+        case 4 -> minute = value;
+        default -> second = value;
+      }
+    }
+
+    if (position != length
+        || month < 1
+        || month > 12
+        || day < 1
+        || day > 31
+        || hour > 23
+        || minute > 59
+        || second > 59) {
+      return null;
+    }
+    // As the smart resolver of DateTimeFormatter, a day past the end of the month is its last day
+    day = Math.min(day, Month.of(month).length(Year.isLeap(year)));
+    return LocalDateTime.of(year, month, day, hour, minute, second);
+  }
+
+  // Parses amounts like "-3.147,21 €", where dots group thousands and the comma is the decimal mark
+  static double parseCurrency(CharSequence text) {
+    return parseNumber(text, true);
+  }
+
+  // Parses percentages like "12,5 %" as 0.125, and plain numbers like "0,125" as they are
+  static double parsePercentage(CharSequence text) {
+    return parseNumber(text, false);
+  }
+
+  private static double parseNumber(CharSequence text, boolean currency) {
+    var negative = false;
+    var started = false;
+    var ended = false;
+    var percentage = false;
+    var decimalMark = false;
+    var digits = 0;
+    var scale = 0;
+    var mantissa = 0L;
+
+    for (int i = 0; i < text.length(); i++) {
+      var c = text.charAt(i);
+      var body = (c >= '0' && c <= '9') || c == ',' || c == '-' || (c == '.' && !currency);
+      if (body && ended) {
+        // Blanks are only allowed around the number, as String.trim would remove
+        return Double.NaN;
+      }
+      started |= body;
+      if (c >= '0' && c <= '9') {
+        mantissa = mantissa * 10 + (c - '0');
+        if (mantissa > MAX_EXACT_MANTISSA) {
+          return Double.NaN;
+        }
+        digits++;
+        if (decimalMark) {
+          scale++;
+        }
+      } else if (c == ',' || (c == '.' && !currency)) {
+        if (decimalMark) {
+          return Double.NaN;
+        }
+        decimalMark = true;
+      } else if (c == '.' || (c == '€' && currency)) {
+        // Thousands separators and the currency sign carry no value
+      } else if (c == '%' && !currency) {
+        percentage = true;
+      } else if (c == '-' && digits == 0 && !decimalMark && !negative) {
+        negative = true;
+      } else if (c <= ' ') {
+        ended = started;
+      } else {
+        return Double.NaN;
+      }
+    }
+
+    if (digits == 0 || scale >= POWERS_OF_TEN.length) {
+      return Double.NaN;
+    }
+    var value = mantissa / POWERS_OF_TEN[scale];
+    if (percentage) {
+      value /= 100;
+    }
+    return negative ? -value : value;
+  }
+}
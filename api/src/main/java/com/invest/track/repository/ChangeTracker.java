@@ -0,0 +1,217 @@
+package com.invest.track.repository;
+
+import com.invest.track.model.Forecast;
+import com.invest.track.model.Investment;
+import com.invest.track.model.InvestmentEntry;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+
+// Records what changed in the repository since the last successful sync. Changes are detected by
+// comparing the stored investment by its written fields, as every write stores a new one, and the
+// indexed entries and forecasts by identity, which holds because they are replaced, not mutated.
+
+@Slf4j
+class ChangeTracker {
+  private final Set<Long> investments = new HashSet<>();
+  private final Set<Long> summaries = new HashSet<>();
+  private final Set<Long> entries = new HashSet<>();
+  private final Map<Long, Integer> appendedEntries = new HashMap<>();
+  private final Set<Long> forecasts = new HashSet<>();
+
+  synchronized void recordSave(
+      Investment previous,
+      List<InvestmentEntry> previousEntries,
+      List<Forecast> previousForecasts,
+      Investment investment) {
+    var id = investment.getId();
+    var currentEntries = investment.getEntries();
+    recordForecastChanges(previousForecasts, investment.getForecasts());
+
+    if (previous == null || !sameWrittenInvestment(previous, investment)) {
+      investments.add(id);
+      // A replaced investment, like a renamed one, often keeps its entries as they are written
+      if (previous == null || !sameWrittenEntries(previousEntries, currentEntries)) {
+        recordEntriesRewrite(id);
+      }
+      return;
+    }
+    // The list row shows the last entry, so its summary changes whenever the last entry does
+    if (lastOf(previousEntries) != investment.getLastEntry()) {
+      summaries.add(id);
+    }
+    if (sameElements(previousEntries, currentEntries)) {
+      return;
+    }
+    if (isAppend(previousEntries, currentEntries) && !entries.contains(id)) {
+      // Earlier appends not yet synced keep the count of entries that are really in the sheet
+      appendedEntries.putIfAbsent(id, previousEntries.size());
+    } else if (!sameWrittenEntries(previousEntries, currentEntries)) {
+      recordEntriesRewrite(id);
+    }
+  }
+
+  synchronized void recordDelete(Long investmentId, List<Forecast> previousForecasts) {
+    investments.add(investmentId);
+    recordEntriesRewrite(investmentId);
+    recordForecastChanges(previousForecasts, List.of());
+  }
+
+  // Whether the investment or any of the given forecasts has changes not yet drained
+  synchronized boolean hasChanges(Long investmentId, List<Forecast> investmentForecasts) {
+    if (investments.contains(investmentId)
+        || summaries.contains(investmentId)
+        || entries.contains(investmentId)
+        || appendedEntries.containsKey(investmentId)) {
+      return true;
+    }
+    for (var forecast : investmentForecasts) {
+      if (forecasts.contains(forecast.getId())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  synchronized PortfolioChanges drain(long journalSequence) {
+    var changes =
+        new PortfolioChanges(
+            Set.copyOf(investments),
+            Set.copyOf(summaries),
+            Set.copyOf(entries),
+            Map.copyOf(appendedEntries),
+            Set.copyOf(forecasts),
+            journalSequence);
+    investments.clear();
+    summaries.clear();
+    entries.clear();
+    appendedEntries.clear();
+    forecasts.clear();
+    log.debug("Drained pending changes: {}", changes);
+    return changes;
+  }
+
+  synchronized void restore(PortfolioChanges changes) {
+    investments.addAll(changes.investments());
+    summaries.addAll(changes.summaries());
+    changes.entries().forEach(this::recordEntriesRewrite);
+    changes
+        .appendedEntries()
+        .forEach(
+            (id, written) -> {
+              if (!entries.contains(id)) {
+                appendedEntries.merge(id, written, Math::min);
+              }
+            });
+    forecasts.addAll(changes.forecasts());
+  }
+
+  // A rewrite of the sheet already includes any appended entry
+  private void recordEntriesRewrite(Long investmentId) {
+    entries.add(investmentId);
+    appendedEntries.remove(investmentId);
+  }
+
+  // Appending to an empty sheet would leave it without headers, so that is treated as a rewrite
+  private static boolean isAppend(List<InvestmentEntry> previous, List<InvestmentEntry> current) {
+    if (previous.isEmpty() || current.size() <= previous.size()) {
+      return false;
+    }
+    return sameElements(previous, current.subList(0, previous.size()));
+  }
+
+  private void recordForecastChanges(List<Forecast> previous, List<Forecast> current) {
+    for (var forecast : previous) {
+      if (!containsSame(current, forecast)) {
+        forecasts.add(forecast.getId());
+      }
+    }
+    for (var forecast : current) {
+      if (!containsSame(previous, forecast)) {
+        forecasts.add(forecast.getId());
+      }
+    }
+  }
+
+  private static <T> boolean containsSame(List<T> list, T element) {
+    for (var candidate : list) {
+      if (candidate == element) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static <T> boolean sameElements(List<T> first, List<T> second) {
+    if (first.size() != second.size()) {
+      return false;
+    }
+    for (int i = 0; i < first.size(); i++) {
+      if (first.get(i) != second.get(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static boolean sameWrittenEntries(List<InvestmentEntry> previous, List<InvestmentEntry> current) {
+    if (previous.size() != current.size()) {
+      return false;
+    }
+    for (int i = 0; i < previous.size(); i++) {
+      if (!sameWrittenEntry(previous.get(i), current.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Compares the fields written to the entries sheet, the rest are derived from them
+  static boolean sameWrittenEntry(InvestmentEntry first, InvestmentEntry second) {
+    return first == second
+        || (Objects.equals(first.getDatetime(), second.getDatetime())
+            && first.getInitialInvestedAmount() == second.getInitialInvestedAmount()
+            && first.getReinvestedAmount() == second.getReinvestedAmount()
+            && first.getProfitability() == second.getProfitability()
+            && Objects.equals(first.getComments(), second.getComments()));
+  }
+
+  // Compares the fields written to the investments list, the summary columns are derived
+  static boolean sameWrittenInvestment(Investment first, Investment second) {
+    return first == second
+        || (Objects.equals(first.getId(), second.getId())
+            && Objects.equals(first.getName(), second.getName())
+            && Objects.equals(first.getDescription(), second.getDescription())
+            && Objects.equals(first.getCurrency(), second.getCurrency())
+            && Objects.equals(first.getStartDateTime(), second.getStartDateTime())
+            && Objects.equals(first.getEndDateTime(), second.getEndDateTime())
+            && first.isReinvested() == second.isReinvested());
+  }
+
+  static boolean sameWrittenForecasts(List<Forecast> previous, List<Forecast> current) {
+    if (previous.size() != current.size()) {
+      return false;
+    }
+    for (int i = 0; i < previous.size(); i++) {
+      var first = previous.get(i);
+      var second = current.get(i);
+      if (first != second
+          && !(Objects.equals(first.getId(), second.getId())
+              && Objects.equals(first.getName(), second.getName())
+              && Objects.equals(first.getStartDate(), second.getStartDate())
+              && Objects.equals(first.getEndDate(), second.getEndDate())
+              && Objects.equals(first.getScenarioRates(), second.getScenarioRates()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static InvestmentEntry lastOf(List<InvestmentEntry> entries) {
+    return entries.isEmpty() ? null : entries.get(entries.size() - 1);
+  }
+}
@@ -0,0 +1,41 @@
+package com.invest.track.repository;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+// Allocates the IDs of investments, entries and forecasts. Each ID space is a monotonic counter
+// that is moved past every ID seen in the loaded data, so allocation is constant time and never
+// hands out an ID that is already in use.
+
+@Slf4j
+@Component
+public class IdAllocator {
+  private final Map<IdSpace, AtomicLong> counters = new EnumMap<>(IdSpace.class);
+
+  public IdAllocator() {
+    for (var space : IdSpace.values()) {
+      counters.put(space, new AtomicLong(1));
+    }
+  }
+
+  public long next(IdSpace space) {
+    var id = counters.get(space).getAndIncrement();
+    log.trace("Allocated {} ID {}", space, id);
+    return id;
+  }
+
+  public void observe(IdSpace space, Long id) {
+    if (id != null) {
+      counters.get(space).accumulateAndGet(id + 1, Math::max);
+    }
+  }
+
+  public enum IdSpace {
+    INVESTMENT,
+    ENTRY,
+    FORECAST
+  }
+}
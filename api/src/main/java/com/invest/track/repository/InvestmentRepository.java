@@ -1,57 +1,947 @@
 package com.invest.track.repository;
 
+import com.invest.track.model.Forecast;
 import com.invest.track.model.Investment;
+import com.invest.track.model.InvestmentEntry;
+import com.invest.track.repository.IdAllocator.IdSpace;
+import com.invest.track.repository.journal.JournalRecord.Type;
+import com.invest.track.repository.journal.JournalReplay;
+import com.invest.track.repository.journal.PortfolioJournal;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Repository;
 
+// Stores investments in memory, locking writes per investment and serving reads from a snapshot
+// published after each write.
+
 @Repository
 @Slf4j
+@RequiredArgsConstructor
 public class InvestmentRepository {
-  private final Map<Long, Investment> storage = new HashMap<>();
-  private final AtomicLong idGenerator = new AtomicLong(1);
+  private static final int LOCK_STRIPES = 64;
+  private static final CompletableFuture<Long> NOT_JOURNALED =
+      CompletableFuture.completedFuture(0L);
+
+  // Only replaced by a rebuild, while holding every stripe. Sorted by ID, as snapshots list them so
+  private volatile Map<Long, Investment> storage = new ConcurrentSkipListMap<>();
+  private volatile PortfolioIndex index = new PortfolioIndex();
+  private final ChangeTracker changeTracker = new ChangeTracker();
+  private final ReentrantLock[] locks = createLocks();
+  private final RunningTotals totals = new RunningTotals(this::lockFor);
+  private final SyncCheckpoints syncCheckpoints = new SyncCheckpoints();
+  private final IdAllocator idAllocator;
+  private final PortfolioJournal journal;
+  private final ReentrantLock publishLock = new ReentrantLock();
+  private final AtomicLong publishRequests = new AtomicLong();
+  // Guarded by publishLock
+  private long publishedRequests;
+  private final AtomicReference<PortfolioSnapshot> snapshot =
+      new AtomicReference<>(PortfolioSnapshot.EMPTY);
+  // Investments whose entries are not loaded yet, each completed once its entries are in place
+  private final Map<Long, CompletableFuture<Void>> deferredEntries = new ConcurrentHashMap<>();
+  private volatile Consumer<Long> entriesRequester = investmentId -> {};
+  // Set while a rebuild runs, to carry over into it what changed since it started
+  private final AtomicReference<Rebuild> rebuild = new AtomicReference<>();
+
+  public PortfolioSnapshot snapshot() {
+    return snapshot.get();
+  }
 
   public List<Investment> findAll() {
-    log.debug("Retrieving all investments, total count: {}", storage.size());
-    return new ArrayList<>(storage.values());
+    awaitAllEntries();
+    return snapshot.get().investments();
+  }
+
+  public boolean isEmpty() {
+    return storage.isEmpty();
+  }
+
+  public PortfolioTotals totals() {
+    return totals.get();
   }
 
   public void save(Investment investment) {
-    if (investment.getId() == null) {
-      long nextId = storage.keySet().stream().mapToLong(Long::longValue).max().orElse(0L) + 1;
+    awaitEntries(investment.getId());
+    assignId(investment);
+    writeDurably(investment.getId(), () -> store(investment, WriteOrigin.CLIENT));
+  }
 
-      idGenerator.set(nextId);
-      long newId = idGenerator.getAndIncrement();
-      investment.setId(newId);
-      log.debug("Assigned new ID {} to investment", newId);
-    }
-    storage.put(investment.getId(), investment);
-    log.debug("Saved investment with ID {}", investment.getId());
+  /*
+   * Applies the change to a copy of the stored investment and saves the copy, both under its
+   * stripe, so readers keep seeing the stored one until the copy is published. The copy holds the
+   * same entries and forecasts, which are replaced rather than changed. The journal is waited for
+   * once the stripe is released, so writes sharing it still share a commit. Returns the saved copy,
+   * or null when the investment does not exist.
+   */
+  public Investment modify(Long investmentId, Consumer<Investment> change) {
+    awaitEntries(investmentId);
+    var modified = new AtomicReference<Investment>();
+    writeDurably(
+        investmentId,
+        () -> {
+          var stored = storage.get(investmentId);
+          if (stored == null) {
+            return NOT_JOURNALED;
+          }
+          var copy = copyOf(stored);
+          change.accept(copy);
+          modified.set(copy);
+          return store(copy, WriteOrigin.CLIENT);
+        });
+    return modified.get();
   }
 
   public void saveAll(List<Investment> investments) {
     log.debug("Saving {} investments", investments.size());
+    // Every loaded ID must be seen before any new one is allocated
+    for (Investment inv : investments) {
+      observeIds(inv);
+    }
+    var commits = new ArrayList<CompletableFuture<Long>>();
     for (Investment inv : investments) {
-      save(inv);
+      commits.add(store(inv, WriteOrigin.CLIENT));
     }
+    commits.forEach(InvestmentRepository::awaitDurable);
+    publish();
   }
 
   public void update(Investment investment) {
     if (investment.getId() == null) return;
-    storage.put(investment.getId(), investment);
-    log.debug("Updated investment with ID {}", investment.getId());
+    awaitEntries(investment.getId());
+    writeDurably(investment.getId(), () -> store(investment, WriteOrigin.CLIENT));
   }
 
   public Investment findById(Long id) {
+    awaitEntries(id);
     return storage.get(id);
   }
 
+  // Entries not loaded yet have no ID, so an unknown one may belong to any of them
+  public InvestmentEntry findEntryById(Long entryId) {
+    var entry = index.findEntry(entryId);
+    if (entry == null && !deferredEntries.isEmpty()) {
+      awaitAllEntries();
+      entry = index.findEntry(entryId);
+    }
+    return entry;
+  }
+
+  public Forecast findForecastById(Long forecastId) {
+    return index.findForecast(forecastId);
+  }
+
+  public List<Forecast> findForecastsByInvestmentId(Long investmentId) {
+    return index.findForecasts(investmentId);
+  }
+
   public void delete(Investment investment) {
     log.debug("Deleting investment with ID {}", investment.getId());
-    storage.remove(investment.getId());
+    writeDurably(investment.getId(), () -> remove(investment.getId(), WriteOrigin.CLIENT));
+    resolveDeferredEntries(investment.getId());
+  }
+
+  /*
+   * Marks stored investments as having their entries still to be loaded. Until entriesLoaded is
+   * called for one of them, reading or writing it waits, after asking the requester to load it.
+   */
+  public void deferEntries(Collection<Long> investmentIds, Consumer<Long> requester) {
+    entriesRequester = requester;
+    for (var investmentId : investmentIds) {
+      deferredEntries.putIfAbsent(investmentId, new CompletableFuture<>());
+    }
+  }
+
+  // Puts the loaded entries in place, which Google Sheets already holds, and releases the waiters
+  public void entriesLoaded(Long investmentId, List<InvestmentEntry> entries) {
+    var commit =
+        locked(
+            investmentId,
+            () -> {
+              var investment = storage.get(investmentId);
+              if (investment == null || !deferredEntries.containsKey(investmentId)) {
+                return NOT_JOURNALED;
+              }
+              var loaded = copyOf(investment);
+              for (var entry : entries) {
+                entry.setInvestment(loaded);
+              }
+              loaded.setEntries(new CopyOnWriteArrayList<>(entries));
+              return store(loaded, WriteOrigin.SHEETS);
+            });
+    awaitDurable(commit);
+    publish();
+    resolveDeferredEntries(investmentId);
+  }
+
+  // Fails the current waiters, while the investment stays deferred for a later attempt
+  public void entriesFailed(Long investmentId, Throwable cause) {
+    deferredEntries.computeIfPresent(
+        investmentId,
+        (id, loading) -> {
+          loading.completeExceptionally(cause);
+          return new CompletableFuture<>();
+        });
+  }
+
+  public boolean hasDeferredEntries() {
+    return !deferredEntries.isEmpty();
+  }
+
+  // Returned as stored, without waiting for their entries
+  public List<Investment> findWithDeferredEntries() {
+    var investments = new ArrayList<Investment>();
+    for (var investmentId : deferredEntries.keySet()) {
+      var investment = storage.get(investmentId);
+      if (investment != null) {
+        investments.add(investment);
+      }
+    }
+    return investments;
+  }
+
+  /*
+   * Rebuilds the portfolio from the journal. What it holds as of its last checkpoint is already in
+   * Google Sheets, while the later records are applied in order and left as pending changes.
+   */
+  public JournalReplay replayJournal() throws IOException {
+    var replay = journal.replay();
+    for (var investment : replay.synced()) {
+      observeIds(investment);
+    }
+    for (var investment : replay.synced()) {
+      store(investment, WriteOrigin.JOURNAL_SYNCED);
+    }
+
+    for (var record : replay.pending()) {
+      if (record.type() == Type.DELETE) {
+        idAllocator.observe(IdSpace.INVESTMENT, record.investmentId());
+        remove(record.investmentId(), WriteOrigin.JOURNAL_PENDING);
+      } else {
+        store(record.investment(), WriteOrigin.JOURNAL_PENDING);
+      }
+    }
+    publish();
+    return replay;
+  }
+
+  /*
+   * Replaces the portfolio with the one loaded from Google Sheets, which needs no sync back. The
+   * investments with changes not yet synced keep their local version, checked under their stripe
+   * so no write slips in between. Returns how many investments were left as they were.
+   */
+  public int reconcile(List<Investment> investments) {
+    for (var investment : investments) {
+      observeIds(investment);
+    }
+    var kept = new AtomicInteger();
+    var commits = new ArrayList<CompletableFuture<Long>>();
+    var loadedIds = new HashSet<Long>();
+    for (var investment : investments) {
+      loadedIds.add(investment.getId());
+      commits.add(
+          locked(
+              investment.getId(),
+              () -> {
+                if (hasPendingChanges(investment.getId(), investment.getForecasts())) {
+                  kept.incrementAndGet();
+                  return NOT_JOURNALED;
+                }
+                keepEntryIds(investment);
+                return store(investment, WriteOrigin.SHEETS);
+              }));
+    }
+    for (var investmentId : List.copyOf(storage.keySet())) {
+      if (loadedIds.contains(investmentId)) {
+        continue;
+      }
+      commits.add(
+          locked(
+              investmentId,
+              () -> {
+                if (hasPendingChanges(investmentId, List.of())) {
+                  kept.incrementAndGet();
+                  return NOT_JOURNALED;
+                }
+                return remove(investmentId, WriteOrigin.SHEETS);
+              }));
+    }
+    commits.forEach(InvestmentRepository::awaitDurable);
+    publish();
+    // Whatever was loaded came with its entries, and what was kept was written with them
+    loadedIds.forEach(this::resolveDeferredEntries);
+    return kept.get();
+  }
+
+  /*
+   * Merges edits made directly in Google Sheets. The listed investments replace the stored ones
+   * whose list row differs and the stored ones no longer listed are removed, while the entries and
+   * the forecasts, by investment ID, replace those of their investment where they differ. The list
+   * and the forecasts are null when they did not change. Like in reconcile, investments with
+   * changes not yet synced keep their local version, checked under their stripe.
+   */
+  public MergeResult mergeExternalEdits(
+      List<Investment> listed, Map<Long, List<InvestmentEntry>> entries, List<Forecast> forecasts) {
+    Map<Long, Investment> listedById = null;
+    if (listed != null) {
+      listedById = new LinkedHashMap<>();
+      for (var investment : listed) {
+        observeIds(investment);
+        listedById.put(investment.getId(), investment);
+      }
+    }
+    Map<Long, List<Forecast>> forecastsById = null;
+    if (forecasts != null) {
+      forecastsById = new HashMap<>();
+      for (var forecast : forecasts) {
+        if (forecast.getInvestment() != null) {
+          idAllocator.observe(IdSpace.FORECAST, forecast.getId());
+          forecastsById
+              .computeIfAbsent(forecast.getInvestment().getId(), id -> new ArrayList<>())
+              .add(forecast);
+        }
+      }
+    }
+
+    // Compared without locking, as every investment found is compared again under its stripe
+    var changed = new LinkedHashSet<Long>();
+    if (listedById != null) {
+      listedById.forEach(
+          (id, investment) -> {
+            var stored = storage.get(id);
+            if (stored == null || !ChangeTracker.sameWrittenInvestment(stored, investment)) {
+              changed.add(id);
+            }
+          });
+    }
+    entries.forEach(
+        (id, sheetEntries) -> {
+          if (!ChangeTracker.sameWrittenEntries(index.findEntries(id), sheetEntries)) {
+            changed.add(id);
+          }
+        });
+    if (forecastsById != null) {
+      var investmentIds = new HashSet<>(storage.keySet());
+      investmentIds.addAll(forecastsById.keySet());
+      for (var id : investmentIds) {
+        var sheetForecasts = forecastsById.getOrDefault(id, List.of());
+        if (!ChangeTracker.sameWrittenForecasts(index.findForecasts(id), sheetForecasts)) {
+          changed.add(id);
+        }
+      }
+    }
+
+    var merged = new AtomicInteger();
+    var removed = new AtomicInteger();
+    var kept = new AtomicInteger();
+    var commits = new ArrayList<CompletableFuture<Long>>();
+    for (var id : changed) {
+      var listedInvestment = listedById == null ? null : listedById.get(id);
+      var sheetEntries = entries.get(id);
+      var sheetForecasts = forecastsById == null ? null : forecastsById.getOrDefault(id, List.of());
+      var unlisted = listedById != null && listedInvestment == null;
+      commits.add(
+          locked(
+              id,
+              () -> {
+                var stored = storage.get(id);
+                var investment = listedInvestment == null ? stored : listedInvestment;
+                if (investment == null || unlisted) {
+                  return NOT_JOURNALED;
+                }
+                if (hasPendingChanges(id, sheetForecasts == null ? List.of() : sheetForecasts)) {
+                  kept.incrementAndGet();
+                  return NOT_JOURNALED;
+                }
+                var source = stored;
+                if (stored != null && ChangeTracker.sameWrittenInvestment(stored, investment)) {
+                  // Merged into a copy holding the same entries and forecasts, not the stored one
+                  investment = copyOf(stored);
+                  source = investment;
+                }
+                mergeEntries(investment, source, sheetEntries);
+                mergeForecasts(investment, source, sheetForecasts);
+                merged.incrementAndGet();
+                return store(investment, WriteOrigin.SHEETS);
+              }));
+    }
+    if (listedById != null) {
+      for (var id : List.copyOf(storage.keySet())) {
+        if (listedById.containsKey(id)) {
+          continue;
+        }
+        commits.add(
+            locked(
+                id,
+                () -> {
+                  if (hasPendingChanges(id, List.of())) {
+                    kept.incrementAndGet();
+                    return NOT_JOURNALED;
+                  }
+                  removed.incrementAndGet();
+                  return remove(id, WriteOrigin.SHEETS);
+                }));
+      }
+    }
+    commits.forEach(InvestmentRepository::awaitDurable);
+    publish();
+    return new MergeResult(merged.get(), removed.get(), kept.get());
+  }
+
+  /*
+   * Starts rebuilding the portfolio, to be swapped in by completeRebuild once fully loaded. From
+   * now on the investments written, or whose changes are drained to be synced, are recorded, as the
+   * load may not include them. Must be called while no drained change is being synced.
+   */
+  public void beginRebuild() {
+    if (!rebuild.compareAndSet(null, new Rebuild())) {
+      throw new IllegalStateException("A rebuild of the portfolio is already running");
+    }
+  }
+
+  public void abortRebuild() {
+    rebuild.set(null);
+  }
+
+  /*
+   * Swaps in the portfolio loaded from Google Sheets since beginRebuild. The new storage and index
+   * are built aside without locking, while reads and writes keep using the current ones. Then,
+   * holding every stripe, the investments recorded during the rebuild or with changes not yet
+   * synced are carried over with their current version, and both are replaced at once.
+   */
+  public RebuildResult completeRebuild(List<Investment> investments) {
+    var current = rebuild.get();
+    if (current == null) {
+      throw new IllegalStateException("No rebuild of the portfolio is running");
+    }
+    for (var investment : investments) {
+      observeIds(investment);
+    }
+    var nextStorage = new ConcurrentSkipListMap<Long, Investment>();
+    var nextIndex = new PortfolioIndex();
+    for (var investment : investments) {
+      if (investment.getId() == null) {
+        investment.setId(idAllocator.next(IdSpace.INVESTMENT));
+      }
+      keepEntryIds(investment);
+      guardCollections(investment);
+      assignMissingIds(investment);
+      nextStorage.put(investment.getId(), investment);
+      nextIndex.reindex(investment);
+    }
+
+    var carriedOver = 0;
+    var commits = new ArrayList<CompletableFuture<Long>>();
+    lockAll();
+    try {
+      rebuild.set(null);
+      var investmentIds = new HashSet<>(storage.keySet());
+      investmentIds.addAll(nextStorage.keySet());
+      for (var id : investmentIds) {
+        var stored = storage.get(id);
+        var loaded = nextStorage.get(id);
+        var loadedForecasts = loaded == null ? List.<Forecast>of() : loaded.getForecasts();
+        if (current.changed(id, index.findForecasts(id), loadedForecasts)
+            || hasPendingChanges(id, loadedForecasts)) {
+          carriedOver++;
+          if (stored == null) {
+            nextStorage.remove(id);
+            nextIndex.remove(id);
+          } else {
+            nextStorage.put(id, stored);
+            nextIndex.reindex(stored);
+          }
+        } else if (loaded == null) {
+          commits.add(journal.appendDelete(id));
+        } else {
+          commits.add(journal.appendSave(loaded));
+        }
+      }
+      storage = nextStorage;
+      index = nextIndex;
+      totals.reset(nextStorage.values());
+    } finally {
+      unlockAll();
+    }
+    commits.forEach(InvestmentRepository::awaitDurable);
+    publish();
+    // Whatever was loaded came with its entries, and what was carried over already had them
+    List.copyOf(deferredEntries.keySet()).forEach(this::resolveDeferredEntries);
+    return new RebuildResult(nextStorage.size(), carriedOver);
+  }
+
+  /*
+   * Returns and forgets the changes made since the previous call. Every stripe is held meanwhile,
+   * so no write is half recorded and the changes match the journal up to their sequence. Must not
+   * be called while holding a stripe, and each drain must be followed by syncCompleted.
+   */
+  public PortfolioChanges drainChanges() {
+    lockAll();
+    try {
+      var changes = changeTracker.drain(journal.lastSequence());
+      syncCheckpoints.started(changes.journalSequence());
+      var rebuilding = rebuild.get();
+      if (rebuilding != null) {
+        rebuilding.recordDrained(changes);
+      }
+      return changes;
+    } finally {
+      unlockAll();
+    }
+  }
+
+  // Checkpoints the journal once the drained changes and every earlier ones are in Google Sheets
+  public void syncCompleted(PortfolioChanges changes, boolean synced) {
+    if (syncCheckpoints.completed(changes.journalSequence(), synced)) {
+      journal.checkpoint(changes.journalSequence());
+    }
+  }
+
+  // Gives back changes that could not be synced, so the next drain includes them again
+  public void restoreChanges(PortfolioChanges changes) {
+    changeTracker.restore(changes);
+  }
+
+  /*
+   * Runs the given action while holding the lock stripe of the investment. Every mutation of an
+   * investment, including its entries and forecasts lists, must go through here or through modify,
+   * which also saves it. An investment whose entries are not loaded yet is waited for before taking
+   * the stripe. Saving from within the action would wait for the journal holding the stripe.
+   */
+  public <T> T withLock(Long investmentId, Supplier<T> action) {
+    awaitEntries(investmentId);
+    return locked(investmentId, action);
+  }
+
+  private <T> T locked(Long investmentId, Supplier<T> action) {
+    var lock = lockFor(investmentId);
+    lock.lock();
+    try {
+      return action.get();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void withLock(Long investmentId, Runnable action) {
+    withLock(
+        investmentId,
+        () -> {
+          action.run();
+          return null;
+        });
+  }
+
+  private void lockAll() {
+    for (var lock : locks) {
+      lock.lock();
+    }
+  }
+
+  private void unlockAll() {
+    for (int i = locks.length - 1; i >= 0; i--) {
+      locks[i].unlock();
+    }
+  }
+
+  /*
+   * Snapshots are built one at a time from the live storage, so the latest publication always
+   * includes every write that completed before it. Building one copies the whole portfolio, which
+   * is linear in its size, so writes waiting to publish are covered by a single snapshot built once
+   * the previous one is done, instead of one each.
+   */
+  private void publish() {
+    var request = publishRequests.incrementAndGet();
+    publishLock.lock();
+    try {
+      if (publishedRequests >= request) {
+        return;
+      }
+      var requests = publishRequests.get();
+      var next = PortfolioSnapshot.of(snapshot.get().version() + 1, storage.values());
+      snapshot.set(next);
+      publishedRequests = requests;
+      log.trace("Published portfolio snapshot version {}", next.version());
+    } finally {
+      publishLock.unlock();
+    }
+  }
+
+  /*
+   * Applies a client write under the stripe of the investment, and waits for the journal once the
+   * stripe is released. When the journal fails to make the write durable, the investment is put back
+   * as it was, unless written again meanwhile, so a write reported as failed neither stays in memory
+   * nor is synced to Google Sheets.
+   */
+  private void writeDurably(Long investmentId, Supplier<CompletableFuture<Long>> write) {
+    var previous = new AtomicReference<Investment>();
+    var written = new AtomicReference<Investment>();
+    var commit =
+        locked(
+            investmentId,
+            () -> {
+              previous.set(storage.get(investmentId));
+              var result = write.get();
+              written.set(storage.get(investmentId));
+              return result;
+            });
+    try {
+      awaitDurable(commit);
+    } catch (UncheckedIOException e) {
+      rollBack(investmentId, previous.get(), written.get());
+      throw e;
+    } finally {
+      publish();
+    }
+  }
+
+  // Recorded as a change of its own, as a sync may have written the rolled back one meanwhile
+  private void rollBack(Long investmentId, Investment previous, Investment written) {
+    var commit =
+        locked(
+            investmentId,
+            () -> {
+              if (previous == written || storage.get(investmentId) != written) {
+                return NOT_JOURNALED;
+              }
+              log.warn("Rolling back investment {} as its write is not durable", investmentId);
+              return previous == null
+                  ? remove(investmentId, WriteOrigin.CLIENT)
+                  : store(previous, WriteOrigin.CLIENT);
+            });
+    try {
+      awaitDurable(commit);
+    } catch (UncheckedIOException e) {
+      log.error("Failed to write the rollback of investment {} to the journal", investmentId, e);
+    }
+  }
+
+  private void assignId(Investment investment) {
+    observeIds(investment);
+    if (investment.getId() == null) {
+      investment.setId(idAllocator.next(IdSpace.INVESTMENT));
+      log.debug("Assigned new ID {} to investment", investment.getId());
+    }
+  }
+
+  private CompletableFuture<Long> store(Investment investment, WriteOrigin origin) {
+    assignId(investment);
+    var commit =
+        locked(
+            investment.getId(),
+            () -> {
+              var previous = storage.get(investment.getId());
+              var previousEntries = index.findEntries(investment.getId());
+              var previousForecasts = index.findForecasts(investment.getId());
+
+              guardCollections(investment);
+              assignMissingIds(investment);
+              storage.put(investment.getId(), investment);
+              index.reindex(investment);
+              totals.update(investment);
+              recordForRebuild(investment.getId());
+              if (origin.tracked) {
+                changeTracker.recordSave(previous, previousEntries, previousForecasts, investment);
+              }
+              return origin.journaled ? journal.appendSave(investment) : NOT_JOURNALED;
+            });
+    log.debug("Saved investment with ID {}", investment.getId());
+    return commit;
+  }
+
+  private CompletableFuture<Long> remove(Long investmentId, WriteOrigin origin) {
+    return locked(
+        investmentId,
+        () -> {
+          var previousForecasts = index.findForecasts(investmentId);
+          index.remove(investmentId);
+          if (storage.remove(investmentId) == null) {
+            return NOT_JOURNALED;
+          }
+          totals.remove(investmentId);
+          recordForRebuild(investmentId);
+          if (origin.tracked) {
+            changeTracker.recordDelete(investmentId, previousForecasts);
+          }
+          return origin.journaled ? journal.appendDelete(investmentId) : NOT_JOURNALED;
+        });
+  }
+
+  // A replaced investment takes the stored entries as copies, as entries point to their investment
+  private void mergeEntries(
+      Investment investment, Investment stored, List<InvestmentEntry> sheetEntries) {
+    if (sheetEntries != null) {
+      for (var entry : sheetEntries) {
+        entry.setInvestment(investment);
+      }
+      investment.setEntries(new CopyOnWriteArrayList<>(sheetEntries));
+      keepEntryIds(investment);
+    } else if (investment != stored) {
+      var copies = new ArrayList<InvestmentEntry>();
+      for (var entry : stored == null ? List.<InvestmentEntry>of() : stored.getEntries()) {
+        var copy =
+            new InvestmentEntry(
+                entry.getDatetime(),
+                entry.getInitialInvestedAmount(),
+                entry.getReinvestedAmount(),
+                entry.getProfitability(),
+                entry.getComments(),
+                investment);
+        copy.setId(entry.getId());
+        copies.add(copy);
+      }
+      investment.setEntries(new CopyOnWriteArrayList<>(copies));
+    }
+  }
+
+  private void mergeForecasts(
+      Investment investment, Investment stored, List<Forecast> sheetForecasts) {
+    if (sheetForecasts != null) {
+      for (var forecast : sheetForecasts) {
+        forecast.setInvestment(investment);
+      }
+      investment.setForecasts(new CopyOnWriteArrayList<>(sheetForecasts));
+    } else if (investment != stored) {
+      var copies = new ArrayList<Forecast>();
+      for (var forecast : stored == null ? List.<Forecast>of() : stored.getForecasts()) {
+        copies.add(
+            Forecast.builder()
+                .id(forecast.getId())
+                .investment(investment)
+                .name(forecast.getName())
+                .startDate(forecast.getStartDate())
+                .endDate(forecast.getEndDate())
+                .scenarioRates(forecast.getScenarioRates())
+                .build());
+      }
+      investment.setForecasts(new CopyOnWriteArrayList<>(copies));
+    }
+  }
+
+  // Entry IDs are not kept in Google Sheets, so loaded entries matching the stored ones keep theirs
+  private void keepEntryIds(Investment loaded) {
+    var stored = index.findEntries(loaded.getId());
+    var entries = loaded.getEntries() == null ? List.<InvestmentEntry>of() : loaded.getEntries();
+    for (int i = 0; i < Math.min(stored.size(), entries.size()); i++) {
+      var entry = entries.get(i);
+      if (entry.getId() == null && ChangeTracker.sameWrittenEntry(stored.get(i), entry)) {
+        entry.setId(stored.get(i).getId());
+      }
+    }
+  }
+
+  // Must be called holding the stripe of the investment
+  private void recordForRebuild(Long investmentId) {
+    var rebuilding = rebuild.get();
+    if (rebuilding != null) {
+      rebuilding.investments.add(investmentId);
+    }
+  }
+
+  // Must be called holding the stripe of the investment
+  private boolean hasPendingChanges(Long investmentId, List<Forecast> loadedForecasts) {
+    return changeTracker.hasChanges(investmentId, index.findForecasts(investmentId))
+        || changeTracker.hasChanges(investmentId, loadedForecasts);
+  }
+
+  // The write is already applied in memory, so a client write is rolled back by writeDurably
+  private static void awaitDurable(CompletableFuture<Long> commit) {
+    try {
+      commit.join();
+    } catch (CompletionException e) {
+      var cause = e.getCause();
+      throw new UncheckedIOException(
+          "Failed to write to the journal",
+          cause instanceof IOException io ? io : new IOException(cause));
+    }
+  }
+
+  // Must not be called holding a stripe, as the entries are put in place under it
+  private void awaitEntries(Long investmentId) {
+    var loading = investmentId == null ? null : deferredEntries.get(investmentId);
+    if (loading == null) {
+      return;
+    }
+    entriesRequester.accept(investmentId);
+    awaitLoaded(investmentId, loading);
+  }
+
+  private void awaitAllEntries() {
+    if (deferredEntries.isEmpty()) {
+      return;
+    }
+    var pending = Map.copyOf(deferredEntries);
+    pending.keySet().forEach(entriesRequester);
+    pending.forEach(InvestmentRepository::awaitLoaded);
+  }
+
+  private static void awaitLoaded(Long investmentId, CompletableFuture<Void> loading) {
+    try {
+      loading.join();
+    } catch (CompletionException e) {
+      var cause = e.getCause();
+      throw new UncheckedIOException(
+          "Failed to load the entries of investment " + investmentId,
+          cause instanceof IOException io ? io : new IOException(cause));
+    }
+  }
+
+  private void resolveDeferredEntries(Long investmentId) {
+    var loading = deferredEntries.remove(investmentId);
+    if (loading != null) {
+      loading.complete(null);
+    }
+  }
+
+  private void observeIds(Investment investment) {
+    idAllocator.observe(IdSpace.INVESTMENT, investment.getId());
+    if (investment.getEntries() != null) {
+      for (var entry : investment.getEntries()) {
+        idAllocator.observe(IdSpace.ENTRY, entry.getId());
+      }
+    }
+    if (investment.getForecasts() != null) {
+      for (var forecast : investment.getForecasts()) {
+        idAllocator.observe(IdSpace.FORECAST, forecast.getId());
+      }
+    }
+  }
+
+  private void assignMissingIds(Investment investment) {
+    for (var entry : investment.getEntries()) {
+      if (entry.getId() == null) {
+        entry.setId(idAllocator.next(IdSpace.ENTRY));
+      }
+    }
+    for (var forecast : investment.getForecasts()) {
+      if (forecast.getId() == null) {
+        forecast.setId(idAllocator.next(IdSpace.FORECAST));
+      }
+    }
+  }
+
+  // Shares the entries and forecasts, in lists of its own, as those are replaced and not changed
+  private static Investment copyOf(Investment investment) {
+    return Investment.builder()
+        .id(investment.getId())
+        .name(investment.getName())
+        .description(investment.getDescription())
+        .currency(investment.getCurrency())
+        .startDateTime(investment.getStartDateTime())
+        .endDateTime(investment.getEndDateTime())
+        .isReinvested(investment.isReinvested())
+        .entries(new CopyOnWriteArrayList<>(investment.getEntries()))
+        .forecasts(new CopyOnWriteArrayList<>(investment.getForecasts()))
+        .build();
+  }
+
+  // Readers iterate the entries and forecasts without locking, so both lists are copy-on-write
+  private void guardCollections(Investment investment) {
+    if (!(investment.getEntries() instanceof CopyOnWriteArrayList)) {
+      investment.setEntries(
+          investment.getEntries() == null
+              ? new CopyOnWriteArrayList<>()
+              : new CopyOnWriteArrayList<>(investment.getEntries()));
+    }
+    if (!(investment.getForecasts() instanceof CopyOnWriteArrayList)) {
+      investment.setForecasts(
+          investment.getForecasts() == null
+              ? new CopyOnWriteArrayList<>()
+              : new CopyOnWriteArrayList<>(investment.getForecasts()));
+    }
+  }
+
+  private ReentrantLock lockFor(Long investmentId) {
+    var hash = Long.hashCode(investmentId);
+    return locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+  }
+
+  /*
+   * Where a write comes from, which decides whether it is journaled and whether it has to be
+   * synced to Google Sheets. What was loaded from Google Sheets or replayed up to the journal
+   * checkpoint is in both already.
+   */
+  private enum WriteOrigin {
+    CLIENT(true, true),
+    SHEETS(true, false),
+    JOURNAL_SYNCED(false, false),
+    JOURNAL_PENDING(false, true);
+
+    private final boolean journaled;
+    private final boolean tracked;
+
+    WriteOrigin(boolean journaled, boolean tracked) {
+      this.journaled = journaled;
+      this.tracked = tracked;
+    }
+  }
+
+  // What changed while a rebuild runs, written under a stripe or drained under all of them
+  private static class Rebuild {
+    private final Set<Long> investments = ConcurrentHashMap.newKeySet();
+    private final Set<Long> forecasts = ConcurrentHashMap.newKeySet();
+
+    void recordDrained(PortfolioChanges changes) {
+      investments.addAll(changes.investments());
+      investments.addAll(changes.summaries());
+      investments.addAll(changes.entries());
+      investments.addAll(changes.appendedEntries().keySet());
+      forecasts.addAll(changes.forecasts());
+    }
+
+    boolean changed(Long investmentId, List<Forecast> stored, List<Forecast> loaded) {
+      if (investments.contains(investmentId)) {
+        return true;
+      }
+      for (var forecast : stored) {
+        if (forecasts.contains(forecast.getId())) {
+          return true;
+        }
+      }
+      for (var forecast : loaded) {
+        if (forecasts.contains(forecast.getId())) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  public record RebuildResult(int investments, int carriedOver) {}
+
+  public record MergeResult(int merged, int removed, int kept) {
+
+    public boolean isEmpty() {
+      return merged == 0 && removed == 0 && kept == 0;
+    }
+  }
+
+  private static ReentrantLock[] createLocks() {
+    var locks = new ReentrantLock[LOCK_STRIPES];
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new ReentrantLock();
+    }
+    return locks;
   }
 }
@@ -0,0 +1,69 @@
+package com.invest.track.repository;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Changes not yet propagated to Google Sheets, by investment ID unless stated otherwise:
+ * - investments: the investment itself was created, replaced or deleted, so the list is rewritten
+ * - summaries: only the last entry changed, so just the summary columns of its row are updated
+ * - entries: the entries changed in any way other than appending, so the sheet is rewritten
+ * - appendedEntries: entries were only appended, mapped to the count already written to the sheet
+ * - forecasts: the IDs of the changed forecasts
+ * Deletions are reported as investment, entries and forecast changes. The journal sequence is the
+ * last one appended when the changes were drained, so once they are synced every journal record up
+ * to it is in Google Sheets.
+ */
+
+public record PortfolioChanges(
+    Set<Long> investments,
+    Set<Long> summaries,
+    Set<Long> entries,
+    Map<Long, Integer> appendedEntries,
+    Set<Long> forecasts,
+    long journalSequence) {
+  public static final PortfolioChanges NONE =
+      new PortfolioChanges(Set.of(), Set.of(), Set.of(), Map.of(), Set.of(), 0);
+
+  public boolean isEmpty() {
+    return investments.isEmpty()
+        && summaries.isEmpty()
+        && entries.isEmpty()
+        && appendedEntries.isEmpty()
+        && forecasts.isEmpty();
+  }
+
+  // The changes written along with the investments list, everything except the forecasts
+  public PortfolioChanges withoutForecasts() {
+    return new PortfolioChanges(
+        investments, summaries, entries, appendedEntries, Set.of(), journalSequence);
+  }
+
+  public PortfolioChanges onlyForecasts() {
+    return new PortfolioChanges(Set.of(), Set.of(), Set.of(), Map.of(), forecasts, journalSequence);
+  }
+
+  public PortfolioChanges merge(PortfolioChanges other) {
+    var mergedEntries = union(entries, other.entries);
+    var mergedAppends = new HashMap<>(appendedEntries);
+    other.appendedEntries.forEach((id, written) -> mergedAppends.merge(id, written, Math::min));
+    // A rewrite of the sheet already includes any appended entry
+    mergedAppends.keySet().removeAll(mergedEntries);
+
+    return new PortfolioChanges(
+        union(investments, other.investments),
+        union(summaries, other.summaries),
+        mergedEntries,
+        Map.copyOf(mergedAppends),
+        union(forecasts, other.forecasts),
+        Math.max(journalSequence, other.journalSequence));
+  }
+
+  private static Set<Long> union(Set<Long> first, Set<Long> second) {
+    var union = new HashSet<>(first);
+    union.addAll(second);
+    return Set.copyOf(union);
+  }
+}
@@ -0,0 +1,93 @@
+package com.invest.track.repository;
+
+import com.invest.track.model.Forecast;
+import com.invest.track.model.Investment;
+import com.invest.track.model.InvestmentEntry;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Primary-key indexes over the entries and forecasts of the stored investments. Every investment
+// is reindexed while its lock stripe is held, so the cost of a write is proportional to the size
+// of that investment and not to the whole portfolio.
+
+class PortfolioIndex {
+  private final Map<Long, InvestmentEntry> entriesById = new ConcurrentHashMap<>();
+  private final Map<Long, Forecast> forecastsById = new ConcurrentHashMap<>();
+  private final Map<Long, List<InvestmentEntry>> entriesByInvestmentId = new ConcurrentHashMap<>();
+  private final Map<Long, List<Forecast>> forecastsByInvestmentId = new ConcurrentHashMap<>();
+
+  // The new elements are indexed before the stale ones are dropped, so lock-free readers never
+  // miss an entry or a forecast that exists both before and after
+  void reindex(Investment investment) {
+    var entries = List.copyOf(investment.getEntries());
+    var entryIds = new HashSet<Long>();
+    for (var entry : entries) {
+      if (entry.getId() != null) {
+        entriesById.put(entry.getId(), entry);
+        entryIds.add(entry.getId());
+      }
+    }
+    var forecasts = List.copyOf(investment.getForecasts());
+    var forecastIds = new HashSet<Long>();
+    for (var forecast : forecasts) {
+      if (forecast.getId() != null) {
+        forecastsById.put(forecast.getId(), forecast);
+        forecastIds.add(forecast.getId());
+      }
+    }
+    var previousEntries = entriesByInvestmentId.put(investment.getId(), entries);
+    var previousForecasts = forecastsByInvestmentId.put(investment.getId(), forecasts);
+
+    if (previousEntries != null) {
+      for (var entry : previousEntries) {
+        if (entry.getId() != null && !entryIds.contains(entry.getId())) {
+          entriesById.remove(entry.getId(), entry);
+        }
+      }
+    }
+    if (previousForecasts != null) {
+      for (var forecast : previousForecasts) {
+        if (forecast.getId() != null && !forecastIds.contains(forecast.getId())) {
+          forecastsById.remove(forecast.getId(), forecast);
+        }
+      }
+    }
+  }
+
+  void remove(Long investmentId) {
+    var entries = entriesByInvestmentId.remove(investmentId);
+    if (entries != null) {
+      for (var entry : entries) {
+        if (entry.getId() != null) {
+          entriesById.remove(entry.getId(), entry);
+        }
+      }
+    }
+    var forecasts = forecastsByInvestmentId.remove(investmentId);
+    if (forecasts != null) {
+      for (var forecast : forecasts) {
+        if (forecast.getId() != null) {
+          forecastsById.remove(forecast.getId(), forecast);
+        }
+      }
+    }
+  }
+
+  InvestmentEntry findEntry(Long entryId) {
+    return entriesById.get(entryId);
+  }
+
+  Forecast findForecast(Long forecastId) {
+    return forecastsById.get(forecastId);
+  }
+
+  List<InvestmentEntry> findEntries(Long investmentId) {
+    return entriesByInvestmentId.getOrDefault(investmentId, List.of());
+  }
+
+  List<Forecast> findForecasts(Long investmentId) {
+    return forecastsByInvestmentId.getOrDefault(investmentId, List.of());
+  }
+}
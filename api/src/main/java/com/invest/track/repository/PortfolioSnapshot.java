@@ -0,0 +1,30 @@
+package com.invest.track.repository;
+
+import com.invest.track.model.Forecast;
+import com.invest.track.model.Investment;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// View of the portfolio published by the repository after each mutation, whose investments are
+// never changed afterwards. Entries and forecasts are shared between the versions of their
+// investment, so they may point back to an earlier version of it, with the same ID. The version
+// grows by one with every publication, so readers can tell whether two snapshots differ.
+
+public record PortfolioSnapshot(
+    long version, List<Investment> investments, List<Forecast> forecasts) {
+  public static final PortfolioSnapshot EMPTY = new PortfolioSnapshot(0, List.of(), List.of());
+
+  // The investments are stored sorted by ID, so they are only copied
+  static PortfolioSnapshot of(long version, Collection<Investment> storedInvestments) {
+    var investments = List.copyOf(storedInvestments);
+
+    var forecasts = new ArrayList<Forecast>();
+    for (var investment : investments) {
+      if (investment.getForecasts() != null) {
+        forecasts.addAll(investment.getForecasts());
+      }
+    }
+    return new PortfolioSnapshot(version, investments, List.copyOf(forecasts));
+  }
+}
@@ -0,0 +1,9 @@
+package com.invest.track.repository;
+
+// Sums over the last entries of the active investments, as maintained by the repository. A new
+// instance is published with every change, so the same instance means the same totals.
+
+public record PortfolioTotals(
+    double investedAmount, double obtained, double benefit, double initialInvestedAmount) {
+  public static final PortfolioTotals ZERO = new PortfolioTotals(0, 0, 0, 0);
+}
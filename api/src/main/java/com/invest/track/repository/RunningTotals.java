@@ -0,0 +1,171 @@
+package com.invest.track.repository;
+
+import com.invest.track.model.Investment;
+import com.invest.track.model.InvestmentEntry;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+
+// Keeps the portfolio totals up to date with every write, so reads never sum the portfolio
+
+class RunningTotals {
+  // End dates further away are checked again after this long, rather than waited for at once
+  private static final Duration MAX_TIMER_DELAY = Duration.ofDays(30);
+
+  private final ScheduledExecutorService timer =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            var thread = new Thread(runnable, "totals-end-dates");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private final Function<Long, Lock> stripes;
+  // Written under the stripe of the investment, or under all stripes when reset
+  private final Map<Long, Counted> counted = new ConcurrentHashMap<>();
+  private final AtomicReference<PortfolioTotals> totals =
+      new AtomicReference<>(PortfolioTotals.ZERO);
+
+  RunningTotals(Function<Long, Lock> stripes) {
+    this.stripes = stripes;
+  }
+
+  PortfolioTotals get() {
+    return totals.get();
+  }
+
+  void update(Investment investment) {
+    var next = count(investment, LocalDateTime.now());
+    var previous =
+        next == null ? counted.remove(investment.getId()) : counted.put(investment.getId(), next);
+    if (previous != null) {
+      previous.cancel();
+    }
+    if (previous != null || next != null) {
+      totals.accumulateAndGet(delta(next, previous), RunningTotals::plus);
+    }
+  }
+
+  void remove(Long investmentId) {
+    var previous = counted.remove(investmentId);
+    if (previous != null) {
+      previous.cancel();
+      totals.accumulateAndGet(delta(null, previous), RunningTotals::plus);
+    }
+  }
+
+  // Summing again also clears the rounding errors left by adding and subtracting amounts
+  void reset(Collection<Investment> investments) {
+    counted.values().forEach(Counted::cancel);
+    counted.clear();
+    var sum = PortfolioTotals.ZERO;
+    var now = LocalDateTime.now();
+    for (var investment : investments) {
+      var next = count(investment, now);
+      if (next != null) {
+        counted.put(investment.getId(), next);
+        sum = plus(sum, delta(next, null));
+      }
+    }
+    totals.set(sum);
+  }
+
+  private Counted count(Investment investment, LocalDateTime now) {
+    var lastEntry = investment.getLastEntry();
+    var endDateTime = investment.getEndDateTime();
+    if (lastEntry == null || (endDateTime != null && !endDateTime.isAfter(now))) {
+      return null;
+    }
+    var next = new Counted(investment.getId(), lastEntry, endDateTime);
+    if (endDateTime != null) {
+      schedule(next, now);
+    }
+    return next;
+  }
+
+  private void schedule(Counted next, LocalDateTime now) {
+    var delay = Duration.between(now, next.endDateTime);
+    if (delay.compareTo(MAX_TIMER_DELAY) > 0) {
+      delay = MAX_TIMER_DELAY;
+    }
+    next.ending = timer.schedule(() -> ended(next), delay.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  // Left alone if the investment was written since, as that write counted it again
+  private void ended(Counted ending) {
+    var stripe = stripes.apply(ending.investmentId);
+    stripe.lock();
+    try {
+      if (counted.get(ending.investmentId) != ending) {
+        return;
+      }
+      var now = LocalDateTime.now();
+      if (ending.endDateTime.isAfter(now)) {
+        schedule(ending, now);
+      } else {
+        counted.remove(ending.investmentId);
+        totals.accumulateAndGet(delta(null, ending), RunningTotals::plus);
+      }
+    } finally {
+      stripe.unlock();
+    }
+  }
+
+  private static PortfolioTotals delta(Counted next, Counted previous) {
+    var investedAmount = 0.0;
+    var obtained = 0.0;
+    var benefit = 0.0;
+    var initialInvestedAmount = 0.0;
+    if (next != null) {
+      investedAmount += next.lastEntry.getTotalInvestedAmount();
+      obtained += next.lastEntry.getObtained();
+      benefit += next.lastEntry.getBenefit();
+      initialInvestedAmount += next.lastEntry.getInitialInvestedAmount();
+    }
+    if (previous != null) {
+      investedAmount -= previous.lastEntry.getTotalInvestedAmount();
+      obtained -= previous.lastEntry.getObtained();
+      benefit -= previous.lastEntry.getBenefit();
+      initialInvestedAmount -= previous.lastEntry.getInitialInvestedAmount();
+    }
+    return new PortfolioTotals(investedAmount, obtained, benefit, initialInvestedAmount);
+  }
+
+  private static PortfolioTotals plus(PortfolioTotals totals, PortfolioTotals delta) {
+    return new PortfolioTotals(
+        totals.investedAmount() + delta.investedAmount(),
+        totals.obtained() + delta.obtained(),
+        totals.benefit() + delta.benefit(),
+        totals.initialInvestedAmount() + delta.initialInvestedAmount());
+  }
+
+  // A new instance each time an investment is counted, so a timer only drops the one it was for
+  private static class Counted {
+    private final Long investmentId;
+    private final InvestmentEntry lastEntry;
+    private final LocalDateTime endDateTime;
+    private volatile ScheduledFuture<?> ending;
+
+    Counted(Long investmentId, InvestmentEntry lastEntry, LocalDateTime endDateTime) {
+      this.investmentId = investmentId;
+      this.lastEntry = lastEntry;
+      this.endDateTime = endDateTime;
+    }
+
+    void cancel() {
+      var scheduled = ending;
+      if (scheduled != null) {
+        scheduled.cancel(false);
+      }
+    }
+  }
+}
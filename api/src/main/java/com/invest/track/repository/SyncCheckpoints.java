@@ -0,0 +1,22 @@
+package com.invest.track.repository;
+
+import java.util.TreeMap;
+
+// Tracks the drained changes still being written to Google Sheets by their journal sequence. A
+// synced sequence can only be checkpointed when no earlier drain is still pending, as its changes
+// may be restored and synced later.
+
+class SyncCheckpoints {
+  // Guarded by this, pending drains by sequence, as several may share one
+  private final TreeMap<Long, Integer> pending = new TreeMap<>();
+
+  synchronized void started(long sequence) {
+    pending.merge(sequence, 1, Integer::sum);
+  }
+
+  // Returns whether every change up to the sequence is now in Google Sheets
+  synchronized boolean completed(long sequence, boolean synced) {
+    pending.computeIfPresent(sequence, (key, count) -> count == 1 ? null : count - 1);
+    return synced && (pending.isEmpty() || pending.firstKey() > sequence);
+  }
+}
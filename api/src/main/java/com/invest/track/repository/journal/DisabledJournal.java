@@ -0,0 +1,37 @@
+package com.invest.track.repository.journal;
+
+import com.invest.track.model.Investment;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Keeps nothing, so Google Sheets stays the only durable copy of the portfolio
+
+class DisabledJournal implements PortfolioJournal {
+  private static final CompletableFuture<Long> COMMITTED = CompletableFuture.completedFuture(0L);
+
+  @Override
+  public JournalReplay replay() {
+    return new JournalReplay(List.of(), List.of(), 0);
+  }
+
+  @Override
+  public CompletableFuture<Long> appendSave(Investment investment) {
+    return COMMITTED;
+  }
+
+  @Override
+  public CompletableFuture<Long> appendDelete(Long investmentId) {
+    return COMMITTED;
+  }
+
+  @Override
+  public long lastSequence() {
+    return 0;
+  }
+
+  @Override
+  public void checkpoint(long sequence) {}
+
+  @Override
+  public void close() {}
+}
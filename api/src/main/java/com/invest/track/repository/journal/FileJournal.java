@@ -0,0 +1,271 @@
+package com.invest.track.repository.journal;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.invest.track.model.Investment;
+import com.invest.track.repository.journal.JournalRecord.Type;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Journal kept in a local file of JSON lines, one record per line, and each group of records synced
+ * with a single fsync. Once enough records are appended the file is compacted into the latest
+ * record of each investment, written to a new file that atomically replaces the old one.
+ */
+
+@Slf4j
+public class FileJournal extends GroupCommitJournal<byte[]> {
+  private static final String COMPACTION_SUFFIX = ".compacting";
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private final Path path;
+  private final int compactAfterRecords;
+  private final ObjectMapper objectMapper;
+
+  // Owned by the writer thread once it starts
+  private FileChannel channel;
+  private final Map<Long, LatestRecord> latestRecords = new HashMap<>();
+  private long checkpointSequence;
+  private int recordsSinceCompaction;
+
+  public FileJournal(
+      Path path,
+      Duration groupCommitWindow,
+      int maxGroupSize,
+      int compactAfterRecords,
+      MeterRegistry meterRegistry) {
+    super("file", groupCommitWindow, maxGroupSize, meterRegistry);
+    this.path = path;
+    this.compactAfterRecords = compactAfterRecords;
+    this.objectMapper =
+        new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .addMixIn(Investment.class, JournaledInvestment.class);
+  }
+
+  /*
+   * Reads the whole journal. A line cut short by a crash in the middle of a write is expected at
+   * the end and truncated, while a broken line anywhere else means the file is corrupt, and the
+   * startup fails rather than silently losing what follows.
+   */
+  @Override
+  protected JournalReplay readJournal() throws IOException {
+    Files.createDirectories(path.toAbsolutePath().getParent());
+    Files.deleteIfExists(path.resolveSibling(path.getFileName() + COMPACTION_SUFFIX));
+    channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    var records = new ArrayList<JournalRecord>();
+    var validLength = readRecords(records);
+    if (validLength < channel.size()) {
+      log.warn(
+          "Truncating {} bytes of an incomplete record at the end of the journal",
+          channel.size() - validLength);
+      channel.truncate(validLength);
+      channel.force(true);
+    }
+    channel.position(validLength);
+    log.debug("Read {} records from the journal at {}", records.size(), path);
+    return fold(records);
+  }
+
+  @Override
+  protected byte[] encode(JournalRecord record) throws IOException {
+    return withNewLine(objectMapper.writeValueAsBytes(record));
+  }
+
+  @Override
+  protected void commit(List<Pending<byte[]>> group) throws IOException {
+    var buffers = new ByteBuffer[group.size()];
+    for (int i = 0; i < group.size(); i++) {
+      buffers[i] = ByteBuffer.wrap(group.get(i).encoded());
+    }
+    writeFully(channel, buffers);
+    channel.force(false);
+
+    for (var pending : group) {
+      track(pending.record(), pending.encoded());
+    }
+    if (recordsSinceCompaction >= compactAfterRecords) {
+      compact();
+    }
+  }
+
+  @Override
+  protected void closeStore() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  /*
+   * Rewrites the journal as its last checkpoint and the latest record of each investment. Deletes
+   * already in Google Sheets are left out, later ones are kept until they are synced too.
+   */
+  private void compact() throws IOException {
+    var start = System.nanoTime();
+    latestRecords
+        .values()
+        .removeIf(
+            latest -> latest.type() == Type.DELETE && latest.sequence() <= checkpointSequence);
+    var lines = new ArrayList<LatestRecord>(latestRecords.values());
+    lines.sort(Comparator.comparingLong(LatestRecord::sequence));
+
+    var compacted = path.resolveSibling(path.getFileName() + COMPACTION_SUFFIX);
+    try (var out =
+        FileChannel.open(
+            compacted,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      var buffers = new ArrayList<ByteBuffer>();
+      buffers.add(ByteBuffer.wrap(encode(JournalRecord.checkpoint(checkpointSequence))));
+      for (var line : lines) {
+        buffers.add(ByteBuffer.wrap(line.line()));
+      }
+      writeFully(out, buffers.toArray(ByteBuffer[]::new));
+      out.force(true);
+    }
+    channel.close();
+    Files.move(
+        compacted, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    syncDirectory();
+    channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    log.info(
+        "Compacted {} journal records into {} in {} ms",
+        recordsSinceCompaction,
+        lines.size() + 1,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    recordsSinceCompaction = 0;
+  }
+
+  // Makes the rename durable, which not every platform allows
+  private void syncDirectory() {
+    try (var directory =
+        FileChannel.open(path.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+      directory.force(true);
+    } catch (IOException e) {
+      log.debug("Could not sync the journal directory", e);
+    }
+  }
+
+  private long readRecords(List<JournalRecord> records) throws IOException {
+    var line = new ByteArrayOutputStream();
+    var buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    long position = 0;
+    long validLength = 0;
+    var broken = false;
+    while (channel.read(buffer, position) > 0) {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        var b = buffer.get();
+        position++;
+        if (b != '\n') {
+          line.write(b);
+          continue;
+        }
+        if (broken) {
+          throw new IOException("The journal is corrupt before byte " + validLength);
+        }
+        var bytes = line.toByteArray();
+        line.reset();
+        if (bytes.length == 0) {
+          validLength = position;
+          continue;
+        }
+        try {
+          var record = objectMapper.readValue(bytes, JournalRecord.class);
+          records.add(record);
+          track(record, withNewLine(bytes));
+          validLength = position;
+        } catch (IOException e) {
+          // Only acceptable as the last line, which the next one proves wrong
+          log.debug("Unreadable journal line ending at byte {}", position, e);
+          broken = true;
+        }
+      }
+      buffer.clear();
+    }
+    return validLength;
+  }
+
+  private JournalReplay fold(List<JournalRecord> records) {
+    var lastSequence = checkpointSequence;
+    for (var record : records) {
+      lastSequence = Math.max(lastSequence, record.sequence());
+    }
+    var synced = new LinkedHashMap<Long, Investment>();
+    var pending = new ArrayList<JournalRecord>();
+    for (var record : records) {
+      if (record.type() == Type.CHECKPOINT) {
+        continue;
+      }
+      if (record.sequence() > checkpointSequence) {
+        pending.add(record);
+      } else if (record.type() == Type.SAVE) {
+        synced.put(record.investmentId(), record.investment());
+      } else {
+        synced.remove(record.investmentId());
+      }
+    }
+    pending.sort(Comparator.comparingLong(JournalRecord::sequence));
+    return new JournalReplay(List.copyOf(synced.values()), List.copyOf(pending), lastSequence);
+  }
+
+  private void track(JournalRecord record, byte[] line) {
+    recordsSinceCompaction++;
+    if (record.type() == Type.CHECKPOINT) {
+      checkpointSequence = Math.max(checkpointSequence, record.sequence());
+      return;
+    }
+    var latest = latestRecords.get(record.investmentId());
+    if (latest == null || latest.sequence() < record.sequence()) {
+      latestRecords.put(
+          record.investmentId(), new LatestRecord(record.sequence(), record.type(), line));
+    }
+  }
+
+  private static byte[] withNewLine(byte[] bytes) {
+    var line = new byte[bytes.length + 1];
+    System.arraycopy(bytes, 0, line, 0, bytes.length);
+    line[bytes.length] = '\n';
+    return line;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+    var remaining = 0L;
+    for (var buffer : buffers) {
+      remaining += buffer.remaining();
+    }
+    while (remaining > 0) {
+      remaining -= channel.write(buffers);
+    }
+  }
+
+  private record LatestRecord(long sequence, Type type, byte[] line) {}
+
+  // Derived properties are left out of the journal, they are computed again when read
+  @JsonIgnoreProperties({"active", "lastEntry"})
+  private abstract static class JournaledInvestment {}
+}
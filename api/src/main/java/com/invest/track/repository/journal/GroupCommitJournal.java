@@ -0,0 +1,219 @@
+package com.invest.track.repository.journal;
+
+import com.invest.track.model.Investment;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Base of the journals that make records durable with group commit. Records are encoded when
+ * appended, while the caller still holds the stripe of the investment, and queued for a single
+ * writer thread. The writer commits everything queued while the previous commit ran at once,
+ * optionally waiting a short window for more records, so concurrent writers share its cost. A
+ * failed commit leaves the store in an unknown state, so the journal rejects every later append.
+ */
+
+@Slf4j
+public abstract class GroupCommitJournal<T> implements PortfolioJournal {
+  private final Duration groupCommitWindow;
+  private final int maxGroupSize;
+  private final BlockingQueue<Pending<T>> queue = new LinkedBlockingQueue<>();
+  private final Thread writer;
+  private final Timer commitTimer;
+  private final DistributionSummary groupSize;
+
+  // Guarded by this
+  private long lastSequence;
+  private volatile IOException failure;
+  private volatile boolean closed;
+
+  protected GroupCommitJournal(
+      String store, Duration groupCommitWindow, int maxGroupSize, MeterRegistry meterRegistry) {
+    this.groupCommitWindow = groupCommitWindow;
+    this.maxGroupSize = maxGroupSize;
+    this.commitTimer =
+        Timer.builder("journal.commit")
+            .description("Time taken to make a group of journal records durable")
+            .tag("store", store)
+            .register(meterRegistry);
+    this.groupSize =
+        DistributionSummary.builder("journal.group.size")
+            .description("Records made durable by a single commit")
+            .tag("store", store)
+            .register(meterRegistry);
+    this.writer = new Thread(this::writeLoop, "journal-writer");
+    this.writer.setDaemon(true);
+  }
+
+  // Reads the journaled state, called once before the writer starts
+  protected abstract JournalReplay readJournal() throws IOException;
+
+  protected abstract T encode(JournalRecord record) throws IOException;
+
+  // Makes the group durable, in order, or fails without completing any of it
+  protected abstract void commit(List<Pending<T>> group) throws IOException;
+
+  protected abstract void closeStore() throws IOException;
+
+  @Override
+  public synchronized JournalReplay replay() throws IOException {
+    if (writer.isAlive()) {
+      throw new IllegalStateException("The journal was already replayed");
+    }
+    var replay = readJournal();
+    lastSequence = replay.lastSequence();
+    log.info(
+        "Replayed the journal up to sequence {}, {} records not yet in Google Sheets",
+        lastSequence,
+        replay.pending().size());
+    writer.start();
+    return replay;
+  }
+
+  @Override
+  public CompletableFuture<Long> appendSave(Investment investment) {
+    return append(sequence -> JournalRecord.save(sequence, investment));
+  }
+
+  @Override
+  public CompletableFuture<Long> appendDelete(Long investmentId) {
+    return append(sequence -> JournalRecord.delete(sequence, investmentId));
+  }
+
+  @Override
+  public synchronized long lastSequence() {
+    return lastSequence;
+  }
+
+  // Checkpoints are not waited for, losing one only makes a restart sync more than needed
+  @Override
+  public void checkpoint(long sequence) {
+    if (closed || failure != null) {
+      log.debug("Ignoring checkpoint at sequence {}, the journal is not writable", sequence);
+      return;
+    }
+    try {
+      var record = JournalRecord.checkpoint(sequence);
+      queue.add(new Pending<>(record, encode(record), null));
+    } catch (IOException e) {
+      log.warn("Failed to encode journal checkpoint at sequence {}", sequence, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    // Appends hold the same monitor, so none is queued after the writer saw the journal closed
+    synchronized (this) {
+      closed = true;
+    }
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(10));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      closeStore();
+    } catch (IOException e) {
+      log.warn("Failed to close the journal", e);
+    }
+  }
+
+  // Sequences are assigned in queue order, so the store and the sequences always agree
+  private synchronized CompletableFuture<Long> append(RecordFactory factory) {
+    if (failure != null) {
+      return CompletableFuture.failedFuture(failure);
+    }
+    if (closed || !writer.isAlive()) {
+      return CompletableFuture.failedFuture(new IOException("The journal is not open"));
+    }
+    var record = factory.create(lastSequence + 1);
+    T encoded;
+    try {
+      encoded = encode(record);
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    lastSequence = record.sequence();
+    var committed = new CompletableFuture<Long>();
+    queue.add(new Pending<>(record, encoded, committed));
+    return committed;
+  }
+
+  private void writeLoop() {
+    var group = new ArrayList<Pending<T>>();
+    // Once closed, whatever is still queued is written before leaving
+    while (!closed || !queue.isEmpty()) {
+      try {
+        var first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        group.add(first);
+        collectGroup(group);
+
+        var start = System.nanoTime();
+        commit(group);
+        commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        groupSize.record(group.size());
+        for (var pending : group) {
+          if (pending.committed() != null) {
+            pending.committed().complete(pending.record().sequence());
+          }
+        }
+        log.trace("Committed {} journal records", group.size());
+      } catch (InterruptedException e) {
+        closed = true;
+      } catch (IOException e) {
+        log.error("Failed to write to the journal, rejecting every later write", e);
+        failure = e;
+        fail(group, e);
+        var rejected = new ArrayList<Pending<T>>();
+        queue.drainTo(rejected);
+        fail(rejected, e);
+        return;
+      } finally {
+        group.clear();
+      }
+    }
+  }
+
+  private void collectGroup(List<Pending<T>> group) throws InterruptedException {
+    queue.drainTo(group, maxGroupSize - group.size());
+    if (groupCommitWindow.isZero() || closed) {
+      return;
+    }
+    var deadline = System.nanoTime() + groupCommitWindow.toNanos();
+    while (group.size() < maxGroupSize) {
+      var next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      if (next == null) {
+        return;
+      }
+      group.add(next);
+      queue.drainTo(group, maxGroupSize - group.size());
+    }
+  }
+
+  private static <T> void fail(List<Pending<T>> records, IOException e) {
+    for (var pending : records) {
+      if (pending.committed() != null) {
+        pending.committed().completeExceptionally(e);
+      }
+    }
+  }
+
+  private interface RecordFactory {
+    JournalRecord create(long sequence);
+  }
+
+  // A queued record, the committed future is null for checkpoints, which nobody waits for
+  protected record Pending<T>(JournalRecord record, T encoded, CompletableFuture<Long> committed) {}
+}
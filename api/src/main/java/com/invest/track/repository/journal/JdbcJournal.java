@@ -0,0 +1,503 @@
+package com.invest.track.repository.journal;
+
+import com.invest.track.model.Forecast;
+import com.invest.track.model.Forecast.ForecastScenario;
+import com.invest.track.model.Investment;
+import com.invest.track.model.InvestmentEntry;
+import com.invest.track.repository.journal.JournalRecord.Type;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Journal kept as the portfolio itself in a relational database, one table per kind of row, so the
+ * latest state of each investment is what is stored and no compaction is needed. Each investment
+ * row holds the sequence of its last write, deleted investments leave a row behind until they are
+ * checkpointed, and the checkpoint has a table of its own. A group of records is committed as one
+ * transaction of batched statements, keeping only the latest record of each investment, as every
+ * record holds the whole investment. The statements are plain SQL understood by MySQL and by H2 in
+ * MySQL mode, which lets the store run embedded without a server.
+ */
+
+@Slf4j
+public class JdbcJournal extends GroupCommitJournal<JdbcJournal.Rows> {
+  private static final int COMMIT_ATTEMPTS = 3;
+
+  private static final List<String> SCHEMA =
+      List.of(
+          """
+          CREATE TABLE IF NOT EXISTS investments (
+            id BIGINT NOT NULL PRIMARY KEY,
+            name VARCHAR(255),
+            description TEXT,
+            currency VARCHAR(32),
+            start_datetime DATETIME(6),
+            end_datetime DATETIME(6),
+            reinvested BOOLEAN NOT NULL,
+            journal_sequence BIGINT NOT NULL
+          )""",
+          """
+          CREATE TABLE IF NOT EXISTS investment_entries (
+            id BIGINT NOT NULL PRIMARY KEY,
+            investment_id BIGINT NOT NULL,
+            sort_order INT NOT NULL,
+            entry_datetime DATETIME(6),
+            initial_invested_amount DOUBLE NOT NULL,
+            reinvested_amount DOUBLE NOT NULL,
+            profitability DOUBLE NOT NULL,
+            comments TEXT,
+            INDEX investment_entries_investment (investment_id, sort_order),
+            INDEX investment_entries_datetime (entry_datetime)
+          )""",
+          """
+          CREATE TABLE IF NOT EXISTS forecasts (
+            id BIGINT NOT NULL PRIMARY KEY,
+            investment_id BIGINT NOT NULL,
+            sort_order INT NOT NULL,
+            name VARCHAR(255),
+            start_date DATE,
+            end_date DATE,
+            INDEX forecasts_investment (investment_id, sort_order)
+          )""",
+          """
+          CREATE TABLE IF NOT EXISTS forecast_rates (
+            forecast_id BIGINT NOT NULL,
+            scenario VARCHAR(16) NOT NULL,
+            rate DOUBLE NOT NULL,
+            PRIMARY KEY (forecast_id, scenario)
+          )""",
+          """
+          CREATE TABLE IF NOT EXISTS deleted_investments (
+            id BIGINT NOT NULL PRIMARY KEY,
+            journal_sequence BIGINT NOT NULL
+          )""",
+          """
+          CREATE TABLE IF NOT EXISTS journal_checkpoint (
+            id INT NOT NULL PRIMARY KEY,
+            journal_sequence BIGINT NOT NULL
+          )""",
+          "INSERT IGNORE INTO journal_checkpoint (id, journal_sequence) VALUES (1, 0)");
+
+  private static final String DELETE_RATES =
+      "DELETE FROM forecast_rates WHERE forecast_id IN"
+          + " (SELECT id FROM forecasts WHERE investment_id = ?)";
+  private static final String DELETE_FORECASTS = "DELETE FROM forecasts WHERE investment_id = ?";
+  private static final String DELETE_ENTRIES =
+      "DELETE FROM investment_entries WHERE investment_id = ?";
+  private static final String DELETE_INVESTMENT = "DELETE FROM investments WHERE id = ?";
+  private static final String DELETE_TOMBSTONE = "DELETE FROM deleted_investments WHERE id = ?";
+  private static final String INSERT_INVESTMENT =
+      "INSERT INTO investments (id, name, description, currency, start_datetime, end_datetime,"
+          + " reinvested, journal_sequence) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String INSERT_ENTRY =
+      "INSERT INTO investment_entries (id, investment_id, sort_order, entry_datetime,"
+          + " initial_invested_amount, reinvested_amount, profitability, comments)"
+          + " VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final String INSERT_FORECAST =
+      "INSERT INTO forecasts (id, investment_id, sort_order, name, start_date, end_date)"
+          + " VALUES (?, ?, ?, ?, ?, ?)";
+  private static final String INSERT_RATE =
+      "INSERT INTO forecast_rates (forecast_id, scenario, rate) VALUES (?, ?, ?)";
+  private static final String INSERT_TOMBSTONE =
+      "INSERT INTO deleted_investments (id, journal_sequence) VALUES (?, ?)";
+  private static final String UPDATE_CHECKPOINT =
+      "UPDATE journal_checkpoint SET journal_sequence = ? WHERE id = 1 AND journal_sequence < ?";
+  private static final String PRUNE_TOMBSTONES =
+      "DELETE FROM deleted_investments WHERE journal_sequence <= ?";
+
+  private final DataSource dataSource;
+
+  public JdbcJournal(
+      DataSource dataSource,
+      Duration groupCommitWindow,
+      int maxGroupSize,
+      MeterRegistry meterRegistry) {
+    super("jdbc", groupCommitWindow, maxGroupSize, meterRegistry);
+    this.dataSource = dataSource;
+  }
+
+  @Override
+  protected JournalReplay readJournal() throws IOException {
+    try (var connection = dataSource.getConnection()) {
+      try (var statement = connection.createStatement()) {
+        for (var sql : SCHEMA) {
+          statement.execute(sql);
+        }
+      }
+      return readPortfolio(connection);
+    } catch (SQLException e) {
+      throw new IOException("Failed to read the journal database", e);
+    }
+  }
+
+  // Copies what is written while the stripe is held, as the investment may change right after
+  @Override
+  protected Rows encode(JournalRecord record) {
+    if (record.type() != Type.SAVE) {
+      return null;
+    }
+    var investment = record.investment();
+    var entries =
+        investment.getEntries() == null
+            ? List.<InvestmentEntry>of()
+            : List.copyOf(investment.getEntries());
+    var forecasts = new ArrayList<ForecastRow>();
+    if (investment.getForecasts() != null) {
+      for (var forecast : investment.getForecasts()) {
+        var rates = forecast.getScenarioRates();
+        forecasts.add(
+            new ForecastRow(
+                forecast.getId(),
+                forecast.getName(),
+                forecast.getStartDate(),
+                forecast.getEndDate(),
+                rates == null ? Map.of() : Map.copyOf(rates)));
+      }
+    }
+    return new Rows(
+        new InvestmentRow(
+            investment.getId(),
+            investment.getName(),
+            investment.getDescription(),
+            investment.getCurrency(),
+            investment.getStartDateTime(),
+            investment.getEndDateTime(),
+            investment.isReinvested()),
+        entries,
+        forecasts);
+  }
+
+  // Rewriting an investment is idempotent, so a transaction rolled back is simply tried again
+  @Override
+  protected void commit(List<Pending<Rows>> group) throws IOException {
+    var latest = new LinkedHashMap<Long, Pending<Rows>>();
+    var checkpoint = -1L;
+    for (var pending : group) {
+      if (pending.record().type() == Type.CHECKPOINT) {
+        checkpoint = Math.max(checkpoint, pending.record().sequence());
+      } else {
+        latest.put(pending.record().investmentId(), pending);
+      }
+    }
+
+    SQLException failure = null;
+    for (int attempt = 1; attempt <= COMMIT_ATTEMPTS; attempt++) {
+      try (var connection = dataSource.getConnection()) {
+        connection.setAutoCommit(false);
+        try {
+          write(connection, latest.values(), checkpoint);
+          connection.commit();
+          return;
+        } catch (SQLException e) {
+          connection.rollback();
+          throw e;
+        }
+      } catch (SQLException e) {
+        log.warn("Failed to commit {} journal records, attempt {}", group.size(), attempt, e);
+        failure = e;
+      }
+    }
+    throw new IOException("Failed to commit to the journal database", failure);
+  }
+
+  @Override
+  protected void closeStore() throws IOException {
+    if (dataSource instanceof AutoCloseable closeable) {
+      try {
+        closeable.close();
+      } catch (Exception e) {
+        throw new IOException("Failed to close the journal database", e);
+      }
+    }
+  }
+
+  private void write(
+      Connection connection, Iterable<Pending<Rows>> records, long checkpointSequence)
+      throws SQLException {
+    try (var deleteRates = connection.prepareStatement(DELETE_RATES);
+        var deleteForecasts = connection.prepareStatement(DELETE_FORECASTS);
+        var deleteEntries = connection.prepareStatement(DELETE_ENTRIES);
+        var deleteInvestment = connection.prepareStatement(DELETE_INVESTMENT);
+        var deleteTombstone = connection.prepareStatement(DELETE_TOMBSTONE);
+        var insertInvestment = connection.prepareStatement(INSERT_INVESTMENT);
+        var insertEntry = connection.prepareStatement(INSERT_ENTRY);
+        var insertForecast = connection.prepareStatement(INSERT_FORECAST);
+        var insertRate = connection.prepareStatement(INSERT_RATE);
+        var insertTombstone = connection.prepareStatement(INSERT_TOMBSTONE)) {
+      for (var pending : records) {
+        var investmentId = pending.record().investmentId();
+        for (var delete :
+            List.of(
+                deleteRates, deleteForecasts, deleteEntries, deleteInvestment, deleteTombstone)) {
+          delete.setLong(1, investmentId);
+          delete.addBatch();
+        }
+        if (pending.record().type() == Type.DELETE) {
+          insertTombstone.setLong(1, investmentId);
+          insertTombstone.setLong(2, pending.record().sequence());
+          insertTombstone.addBatch();
+        } else {
+          addInvestment(
+              pending.encoded(),
+              pending.record().sequence(),
+              insertInvestment,
+              insertEntry,
+              insertForecast,
+              insertRate);
+        }
+      }
+      // Deletes run before inserts, so the rows of a rewritten investment never collide
+      for (var statement :
+          List.of(
+              deleteRates,
+              deleteForecasts,
+              deleteEntries,
+              deleteInvestment,
+              deleteTombstone,
+              insertInvestment,
+              insertEntry,
+              insertForecast,
+              insertRate,
+              insertTombstone)) {
+        statement.executeBatch();
+      }
+    }
+
+    if (checkpointSequence >= 0) {
+      try (var update = connection.prepareStatement(UPDATE_CHECKPOINT);
+          var prune = connection.prepareStatement(PRUNE_TOMBSTONES)) {
+        update.setLong(1, checkpointSequence);
+        update.setLong(2, checkpointSequence);
+        update.executeUpdate();
+        prune.setLong(1, checkpointSequence);
+        prune.executeUpdate();
+      }
+    }
+  }
+
+  private static void addInvestment(
+      Rows rows,
+      long sequence,
+      PreparedStatement insertInvestment,
+      PreparedStatement insertEntry,
+      PreparedStatement insertForecast,
+      PreparedStatement insertRate)
+      throws SQLException {
+    var investment = rows.investment();
+    insertInvestment.setLong(1, investment.id());
+    insertInvestment.setString(2, investment.name());
+    insertInvestment.setString(3, investment.description());
+    insertInvestment.setString(4, investment.currency());
+    setDateTime(insertInvestment, 5, investment.startDateTime());
+    setDateTime(insertInvestment, 6, investment.endDateTime());
+    insertInvestment.setBoolean(7, investment.reinvested());
+    insertInvestment.setLong(8, sequence);
+    insertInvestment.addBatch();
+
+    var order = 0;
+    for (var entry : rows.entries()) {
+      insertEntry.setLong(1, entry.getId());
+      insertEntry.setLong(2, investment.id());
+      insertEntry.setInt(3, order++);
+      setDateTime(insertEntry, 4, entry.getDatetime());
+      insertEntry.setDouble(5, entry.getInitialInvestedAmount());
+      insertEntry.setDouble(6, entry.getReinvestedAmount());
+      insertEntry.setDouble(7, entry.getProfitability());
+      insertEntry.setString(8, entry.getComments());
+      insertEntry.addBatch();
+    }
+
+    order = 0;
+    for (var forecast : rows.forecasts()) {
+      insertForecast.setLong(1, forecast.id());
+      insertForecast.setLong(2, investment.id());
+      insertForecast.setInt(3, order++);
+      insertForecast.setString(4, forecast.name());
+      insertForecast.setObject(5, forecast.startDate(), Types.DATE);
+      insertForecast.setObject(6, forecast.endDate(), Types.DATE);
+      insertForecast.addBatch();
+      for (var rate : forecast.rates().entrySet()) {
+        insertRate.setLong(1, forecast.id());
+        insertRate.setString(2, rate.getKey().name());
+        insertRate.setDouble(3, rate.getValue());
+        insertRate.addBatch();
+      }
+    }
+  }
+
+  private static JournalReplay readPortfolio(Connection connection) throws SQLException {
+    long checkpointSequence;
+    try (var statement = connection.createStatement();
+        var result =
+            statement.executeQuery(
+                "SELECT journal_sequence FROM journal_checkpoint WHERE id = 1")) {
+      checkpointSequence = result.next() ? result.getLong(1) : 0;
+    }
+
+    var investments = new LinkedHashMap<Long, Investment>();
+    var sequences = new HashMap<Long, Long>();
+    try (var statement = connection.createStatement();
+        var result =
+            statement.executeQuery(
+                "SELECT id, name, description, currency, start_datetime, end_datetime, reinvested,"
+                    + " journal_sequence FROM investments ORDER BY id")) {
+      while (result.next()) {
+        var investment =
+            new Investment(
+                result.getLong(1),
+                result.getString(2),
+                result.getString(3),
+                result.getString(4),
+                getDateTime(result, 5),
+                getDateTime(result, 6),
+                result.getBoolean(7));
+        investment.setEntries(new CopyOnWriteArrayList<>());
+        investment.setForecasts(new CopyOnWriteArrayList<>());
+        investments.put(investment.getId(), investment);
+        sequences.put(investment.getId(), result.getLong(8));
+      }
+    }
+
+    try (var statement = connection.createStatement();
+        var result =
+            statement.executeQuery(
+                "SELECT id, investment_id, entry_datetime, initial_invested_amount,"
+                    + " reinvested_amount, profitability, comments FROM investment_entries"
+                    + " ORDER BY investment_id, sort_order")) {
+      while (result.next()) {
+        var investment = investments.get(result.getLong(2));
+        if (investment == null) {
+          continue;
+        }
+        var entry =
+            new InvestmentEntry(
+                getDateTime(result, 3),
+                result.getDouble(4),
+                result.getDouble(5),
+                result.getDouble(6),
+                result.getString(7),
+                investment);
+        entry.setId(result.getLong(1));
+        investment.getEntries().add(entry);
+      }
+    }
+
+    var forecastsById = new HashMap<Long, Forecast>();
+    try (var statement = connection.createStatement();
+        var result =
+            statement.executeQuery(
+                "SELECT id, investment_id, name, start_date, end_date FROM forecasts"
+                    + " ORDER BY investment_id, sort_order")) {
+      while (result.next()) {
+        var investment = investments.get(result.getLong(2));
+        if (investment == null) {
+          continue;
+        }
+        var forecast =
+            Forecast.builder()
+                .id(result.getLong(1))
+                .investment(investment)
+                .name(result.getString(3))
+                .startDate(result.getObject(4, LocalDate.class))
+                .endDate(result.getObject(5, LocalDate.class))
+                .build();
+        investment.getForecasts().add(forecast);
+        forecastsById.put(forecast.getId(), forecast);
+      }
+    }
+
+    try (var statement = connection.createStatement();
+        var result =
+            statement.executeQuery("SELECT forecast_id, scenario, rate FROM forecast_rates")) {
+      while (result.next()) {
+        var forecast = forecastsById.get(result.getLong(1));
+        if (forecast == null) {
+          continue;
+        }
+        if (forecast.getScenarioRates() == null) {
+          forecast.setScenarioRates(new EnumMap<>(ForecastScenario.class));
+        }
+        forecast
+            .getScenarioRates()
+            .put(ForecastScenario.valueOf(result.getString(2)), result.getDouble(3));
+      }
+    }
+
+    var lastSequence = checkpointSequence;
+    var synced = new ArrayList<Investment>();
+    var pending = new ArrayList<JournalRecord>();
+    for (var investment : investments.values()) {
+      var sequence = sequences.get(investment.getId());
+      lastSequence = Math.max(lastSequence, sequence);
+      if (sequence > checkpointSequence) {
+        pending.add(JournalRecord.save(sequence, investment));
+      } else {
+        synced.add(investment);
+      }
+    }
+    try (var statement = connection.createStatement();
+        var result =
+            statement.executeQuery("SELECT id, journal_sequence FROM deleted_investments")) {
+      while (result.next()) {
+        var sequence = result.getLong(2);
+        lastSequence = Math.max(lastSequence, sequence);
+        if (sequence > checkpointSequence) {
+          pending.add(JournalRecord.delete(sequence, result.getLong(1)));
+        }
+      }
+    }
+    pending.sort(Comparator.comparingLong(JournalRecord::sequence));
+    log.debug(
+        "Read {} investments and {} deletes from the journal database",
+        investments.size(),
+        pending.size() - (investments.size() - synced.size()));
+    return new JournalReplay(List.copyOf(synced), List.copyOf(pending), lastSequence);
+  }
+
+  private static void setDateTime(PreparedStatement statement, int index, LocalDateTime value)
+      throws SQLException {
+    statement.setTimestamp(index, value == null ? null : Timestamp.valueOf(value));
+  }
+
+  private static LocalDateTime getDateTime(ResultSet result, int index) throws SQLException {
+    var value = result.getTimestamp(index);
+    return value == null ? null : value.toLocalDateTime();
+  }
+
+  record Rows(
+      InvestmentRow investment, List<InvestmentEntry> entries, List<ForecastRow> forecasts) {}
+
+  private record InvestmentRow(
+      Long id,
+      String name,
+      String description,
+      String currency,
+      LocalDateTime startDateTime,
+      LocalDateTime endDateTime,
+      boolean reinvested) {}
+
+  private record ForecastRow(
+      Long id,
+      String name,
+      LocalDate startDate,
+      LocalDate endDate,
+      Map<ForecastScenario, Double> rates) {}
+}
@@ -0,0 +1,30 @@
+package com.invest.track.repository.journal;
+
+import com.invest.track.model.Investment;
+
+/*
+ * A line of the journal. Saves hold the whole investment with its entries and forecasts, so the
+ * latest record of each investment is enough to restore it. Checkpoints hold the sequence up to
+ * which the changes are in Google Sheets.
+ */
+
+public record JournalRecord(long sequence, Type type, Long investmentId, Investment investment) {
+
+  static JournalRecord save(long sequence, Investment investment) {
+    return new JournalRecord(sequence, Type.SAVE, investment.getId(), investment);
+  }
+
+  static JournalRecord delete(long sequence, Long investmentId) {
+    return new JournalRecord(sequence, Type.DELETE, investmentId, null);
+  }
+
+  static JournalRecord checkpoint(long sequence) {
+    return new JournalRecord(sequence, Type.CHECKPOINT, null, null);
+  }
+
+  public enum Type {
+    SAVE,
+    DELETE,
+    CHECKPOINT
+  }
+}
@@ -0,0 +1,18 @@
+package com.invest.track.repository.journal;
+
+import com.invest.track.model.Investment;
+import java.util.List;
+
+/*
+ * The journaled portfolio: the investments as of the last checkpoint, which Google Sheets already
+ * holds, and the saves and deletes recorded after it in order, which still have to be synced. New
+ * records continue after the last sequence, which is never below the checkpoint.
+ */
+
+public record JournalReplay(
+    List<Investment> synced, List<JournalRecord> pending, long lastSequence) {
+
+  public boolean isEmpty() {
+    return synced.isEmpty() && pending.isEmpty();
+  }
+}
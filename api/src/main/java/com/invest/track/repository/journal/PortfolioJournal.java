@@ -0,0 +1,40 @@
+package com.invest.track.repository.journal;
+
+import com.invest.track.model.Investment;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Durable log of the repository mutations. Every save and delete is appended before the write is
+ * acknowledged, so the portfolio can be rebuilt from it at startup without reading Google Sheets,
+ * which becomes a replica kept up to date from the journal. Checkpoints record up to which sequence
+ * Google Sheets already holds the changes, so only the later ones are synced again after a restart.
+ */
+
+public interface PortfolioJournal {
+
+  static PortfolioJournal disabled() {
+    return new DisabledJournal();
+  }
+
+  // Rebuilds the journaled state, must be called before the first append
+  JournalReplay replay() throws IOException;
+
+  // Completes with the sequence of the record once it is durable
+  CompletableFuture<Long> appendSave(Investment investment);
+
+  CompletableFuture<Long> appendDelete(Long investmentId);
+
+  // The sequence of the last appended record, durable or not yet
+  long lastSequence();
+
+  // Records that every change up to the given sequence is in Google Sheets
+  void checkpoint(long sequence);
+
+  void close();
+
+  enum Store {
+    FILE,
+    JDBC
+  }
+}
@@ -0,0 +1,249 @@
+package com.invest.track.repository.snapshot;
+
+import com.invest.track.model.Forecast;
+import com.invest.track.model.Forecast.ForecastScenario;
+import com.invest.track.model.Investment;
+import com.invest.track.model.InvestmentEntry;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/*
+ * Binary snapshot of the portfolio in a local file. The file is a header, every investment with
+ * its entries and forecasts in a fixed field order, and a CRC32 of everything before it. It is
+ * read by memory mapping it and decoding the fields in place, with no parsing, so even a large
+ * portfolio is restored in milliseconds. Derived entry amounts are not stored, they are computed
+ * again when read. A new snapshot is written to a temporary file that atomically replaces the
+ * previous one.
+ */
+
+public class SnapshotFile {
+  private static final int MAGIC = 0x49545331; // "ITS1"
+  private static final int FORMAT_VERSION = 1;
+  private static final int CHECKSUM_SIZE = Long.BYTES;
+  private static final long NULL_TIME = Long.MIN_VALUE;
+  private static final String TEMPORARY_SUFFIX = ".writing";
+
+  private final Path path;
+
+  public SnapshotFile(Path path) {
+    this.path = path;
+  }
+
+  public void write(Collection<Investment> investments) throws IOException {
+    Files.createDirectories(path.toAbsolutePath().getParent());
+    var temporary = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+    try (var channel =
+        FileChannel.open(
+            temporary,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      var checksum = new CRC32();
+      var out =
+          new DataOutputStream(
+              new BufferedOutputStream(
+                  new CheckedOutputStream(Channels.newOutputStream(channel), checksum)));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(investments.size());
+      for (var investment : investments) {
+        writeInvestment(out, investment);
+      }
+      out.flush();
+      // Written past the checksummed stream, as it covers everything before it
+      channel.write(ByteBuffer.allocate(CHECKSUM_SIZE).putLong(0, checksum.getValue()));
+      channel.force(true);
+    }
+    Files.move(
+        temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  // Returns null when there is no snapshot, and fails when it is corrupt or from another format
+  public List<Investment> read() throws IOException {
+    if (!Files.exists(path)) {
+      return null;
+    }
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      var size = channel.size();
+      if (size < 3 * Integer.BYTES + CHECKSUM_SIZE) {
+        throw new IOException("Snapshot " + path + " is truncated");
+      }
+      var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+      var checksum = new CRC32();
+      checksum.update(buffer.slice(0, (int) size - CHECKSUM_SIZE));
+      if (checksum.getValue() != buffer.getLong((int) size - CHECKSUM_SIZE)) {
+        throw new IOException("Snapshot " + path + " does not match its checksum");
+      }
+      if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+        throw new IOException("Snapshot " + path + " is not in a supported format");
+      }
+      var count = buffer.getInt();
+      var investments = new ArrayList<Investment>(count);
+      for (int i = 0; i < count; i++) {
+        investments.add(readInvestment(buffer));
+      }
+      return investments;
+    }
+  }
+
+  private static void writeInvestment(DataOutputStream out, Investment investment)
+      throws IOException {
+    out.writeLong(investment.getId());
+    writeString(out, investment.getName());
+    writeString(out, investment.getDescription());
+    writeString(out, investment.getCurrency());
+    writeDateTime(out, investment.getStartDateTime());
+    writeDateTime(out, investment.getEndDateTime());
+    out.writeBoolean(investment.isReinvested());
+
+    var entries =
+        investment.getEntries() == null ? List.<InvestmentEntry>of() : investment.getEntries();
+    out.writeInt(entries.size());
+    for (var entry : entries) {
+      out.writeLong(entry.getId());
+      writeDateTime(out, entry.getDatetime());
+      out.writeDouble(entry.getInitialInvestedAmount());
+      out.writeDouble(entry.getReinvestedAmount());
+      out.writeDouble(entry.getProfitability());
+      writeString(out, entry.getComments());
+    }
+
+    var forecasts =
+        investment.getForecasts() == null ? List.<Forecast>of() : investment.getForecasts();
+    out.writeInt(forecasts.size());
+    for (var forecast : forecasts) {
+      out.writeLong(forecast.getId());
+      writeString(out, forecast.getName());
+      writeDate(out, forecast.getStartDate());
+      writeDate(out, forecast.getEndDate());
+      var rates = forecast.getScenarioRates();
+      out.writeInt(rates == null ? -1 : rates.size());
+      if (rates != null) {
+        for (var rate : rates.entrySet()) {
+          out.writeByte(rate.getKey().ordinal());
+          out.writeDouble(rate.getValue());
+        }
+      }
+    }
+  }
+
+  private static Investment readInvestment(ByteBuffer buffer) {
+    var investment =
+        new Investment(
+            buffer.getLong(),
+            readString(buffer),
+            readString(buffer),
+            readString(buffer),
+            readDateTime(buffer),
+            readDateTime(buffer),
+            buffer.get() != 0);
+
+    var entryCount = buffer.getInt();
+    var entries = new ArrayList<InvestmentEntry>(entryCount);
+    for (int i = 0; i < entryCount; i++) {
+      var id = buffer.getLong();
+      var entry =
+          new InvestmentEntry(
+              readDateTime(buffer),
+              buffer.getDouble(),
+              buffer.getDouble(),
+              buffer.getDouble(),
+              readString(buffer),
+              investment);
+      entry.setId(id);
+      entries.add(entry);
+    }
+    investment.setEntries(new CopyOnWriteArrayList<>(entries));
+
+    var scenarios = ForecastScenario.values();
+    var forecastCount = buffer.getInt();
+    var forecasts = new ArrayList<Forecast>(forecastCount);
+    for (int i = 0; i < forecastCount; i++) {
+      var forecast =
+          Forecast.builder()
+              .id(buffer.getLong())
+              .name(readString(buffer))
+              .investment(investment)
+              .startDate(readDate(buffer))
+              .endDate(readDate(buffer))
+              .build();
+      var rateCount = buffer.getInt();
+      if (rateCount >= 0) {
+        var rates = new EnumMap<ForecastScenario, Double>(ForecastScenario.class);
+        for (int r = 0; r < rateCount; r++) {
+          rates.put(scenarios[buffer.get()], buffer.getDouble());
+        }
+        forecast.setScenarioRates(rates);
+      }
+      forecasts.add(forecast);
+    }
+    investment.setForecasts(new CopyOnWriteArrayList<>(forecasts));
+    return investment;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    var bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    var length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    var bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeDateTime(DataOutputStream out, LocalDateTime value) throws IOException {
+    if (value == null) {
+      out.writeLong(NULL_TIME);
+      return;
+    }
+    out.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+    out.writeInt(value.getNano());
+  }
+
+  private static LocalDateTime readDateTime(ByteBuffer buffer) {
+    var seconds = buffer.getLong();
+    if (seconds == NULL_TIME) {
+      return null;
+    }
+    return LocalDateTime.ofEpochSecond(seconds, buffer.getInt(), ZoneOffset.UTC);
+  }
+
+  private static void writeDate(DataOutputStream out, LocalDate value) throws IOException {
+    out.writeLong(value == null ? NULL_TIME : value.toEpochDay());
+  }
+
+  private static LocalDate readDate(ByteBuffer buffer) {
+    var days = buffer.getLong();
+    return days == NULL_TIME ? null : LocalDate.ofEpochDay(days);
+  }
+}
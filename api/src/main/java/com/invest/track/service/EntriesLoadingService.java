@@ -0,0 +1,206 @@
+package com.invest.track.service;
+
+import com.invest.track.api.google.GoogleSheetsPortfolioLoader;
+import com.invest.track.api.google.GoogleSheetsPortfolioLoader.SheetsPortfolio;
+import com.invest.track.model.Investment;
+import com.invest.track.repository.InvestmentRepository;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Loads the portfolio from Google Sheets progressively. The investments list, the forecasts and the
+ * entries of the active investments are loaded at startup, while the entries of the closed ones
+ * are left out and loaded afterwards by a background warm-up, in batches of one request each, the
+ * most recently closed first. An investment accessed before its turn waits for its own entries,
+ * which are then loaded on their own right away. A failed batch is retried after a delay.
+ */
+
+@Slf4j
+public class EntriesLoadingService {
+  private static final Comparator<Investment> MOST_RECENTLY_CLOSED_FIRST =
+      Comparator.comparing(
+          Investment::getEndDateTime,
+          Comparator.nullsFirst(Comparator.<LocalDateTime>reverseOrder()));
+
+  private final InvestmentRepository repository;
+  private final GoogleSheetsPortfolioLoader loader;
+  private final boolean deferClosedEntries;
+  private final int batchSize;
+  private final Duration retryDelay;
+  private final ScheduledExecutorService warmUp;
+  private final ExecutorService onDemand;
+
+  // Investments whose entries are being loaded, by the warm-up or on demand
+  private final Set<Long> loading = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger deferred = new AtomicInteger();
+  private final AtomicInteger loaded = new AtomicInteger();
+  private final AtomicInteger failedAttempts = new AtomicInteger();
+  private final AtomicLong startNanos = new AtomicLong();
+  private final AtomicLong completedNanos = new AtomicLong();
+
+  public EntriesLoadingService(
+      InvestmentRepository repository,
+      GoogleSheetsPortfolioLoader loader,
+      boolean deferClosedEntries,
+      int batchSize,
+      Duration retryDelay) {
+    this.repository = repository;
+    this.loader = loader;
+    this.deferClosedEntries = deferClosedEntries;
+    this.batchSize = batchSize;
+    this.retryDelay = retryDelay;
+    this.warmUp =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              var thread = new Thread(runnable, "entries-warm-up");
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.onDemand =
+        Executors.newCachedThreadPool(
+            runnable -> {
+              var thread = new Thread(runnable, "entries-on-demand");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  public SheetsPortfolio load() throws IOException {
+    return deferClosedEntries ? loader.loadActive() : loader.load();
+  }
+
+  // Must be called once the loaded portfolio is stored, with the investments deferred by load
+  public void start(Set<Long> deferredEntries) {
+    if (deferredEntries.isEmpty()) {
+      return;
+    }
+    deferred.set(deferredEntries.size());
+    startNanos.set(System.nanoTime());
+    repository.deferEntries(deferredEntries, this::request);
+    log.info("Loading the entries of {} closed investments in the background", deferred.get());
+    warmUp.execute(this::warmUpBatch);
+  }
+
+  public LoadingProgress progress() {
+    var pending = repository.findWithDeferredEntries().size();
+    var endNanos = completedNanos.get() == 0 ? System.nanoTime() : completedNanos.get();
+    var elapsedNanos = startNanos.get() == 0 ? 0 : endNanos - startNanos.get();
+    return new LoadingProgress(
+        pending == 0,
+        deferred.get(),
+        loaded.get(),
+        pending,
+        failedAttempts.get(),
+        Duration.ofNanos(Math.max(elapsedNanos, 0)));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    warmUp.shutdownNow();
+    onDemand.shutdownNow();
+  }
+
+  private void warmUpBatch() {
+    var batch = claimBatch();
+    if (batch.isEmpty()) {
+      // What is left is being loaded on demand, or failed there and is retried from here
+      if (repository.hasDeferredEntries()) {
+        warmUp.schedule(this::warmUpBatch, retryDelay.toMillis(), TimeUnit.MILLISECONDS);
+      }
+      return;
+    }
+    if (load(batch)) {
+      warmUp.execute(this::warmUpBatch);
+    } else {
+      warmUp.schedule(this::warmUpBatch, retryDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  // Asked by the repository when the entries of an investment are waited for
+  private void request(Long investmentId) {
+    if (!loading.add(investmentId)) {
+      return;
+    }
+    var investment =
+        repository.findWithDeferredEntries().stream()
+            .filter(candidate -> candidate.getId().equals(investmentId))
+            .findFirst();
+    if (investment.isEmpty()) {
+      loading.remove(investmentId);
+      return;
+    }
+    log.debug("Loading the entries of investment {} on demand", investmentId);
+    onDemand.execute(() -> load(List.of(investment.get())));
+  }
+
+  private List<Investment> claimBatch() {
+    var candidates = repository.findWithDeferredEntries();
+    candidates.sort(MOST_RECENTLY_CLOSED_FIRST);
+    var batch = new ArrayList<Investment>();
+    for (var investment : candidates) {
+      if (batch.size() == batchSize) {
+        break;
+      }
+      if (loading.add(investment.getId())) {
+        batch.add(investment);
+      }
+    }
+    return batch;
+  }
+
+  private boolean load(List<Investment> investments) {
+    try {
+      var entries = loader.loadEntries(investments);
+      for (var investment : investments) {
+        repository.entriesLoaded(
+            investment.getId(), entries.getOrDefault(investment.getId(), List.of()));
+        loaded.incrementAndGet();
+      }
+      log.debug("Loaded the entries of {} closed investments", investments.size());
+      if (!repository.hasDeferredEntries() && completedNanos.compareAndSet(0, System.nanoTime())) {
+        log.info(
+            "Loaded the entries of {} closed investments in {} ms",
+            loaded.get(),
+            TimeUnit.NANOSECONDS.toMillis(completedNanos.get() - startNanos.get()));
+      }
+      return true;
+    } catch (Exception e) {
+      failedAttempts.incrementAndGet();
+      log.warn(
+          "Failed to load the entries of {} closed investments, retrying in {}",
+          investments.size(),
+          retryDelay,
+          e);
+      for (var investment : investments) {
+        repository.entriesFailed(investment.getId(), e);
+      }
+      return false;
+    } finally {
+      for (var investment : investments) {
+        loading.remove(investment.getId());
+      }
+    }
+  }
+
+  public record LoadingProgress(
+      boolean complete,
+      int deferred,
+      int loaded,
+      int pending,
+      int failedAttempts,
+      Duration elapsed) {}
+}
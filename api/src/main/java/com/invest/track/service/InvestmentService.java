@@ -1,7 +1,5 @@
 package com.invest.track.service;
 
-import com.invest.track.api.google.GoogleSheetsForecastService;
-import com.invest.track.api.google.GoogleSheetsInvestmentService;
 import com.invest.track.model.Forecast;
 import com.invest.track.model.Investment;
 import com.invest.track.model.InvestmentEntry;
@@ -10,10 +8,8 @@ import com.invest.track.repository.InvestmentRepository;
 import jakarta.annotation.PostConstruct;
 import java.io.IOException;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Stream;
+import java.util.function.Consumer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -24,12 +20,11 @@ import org.springframework.stereotype.Service;
 @Service
 @RequiredArgsConstructor
 public class InvestmentService {
-  private final GoogleSheetsInvestmentService googleSheetsService;
-  private final GoogleSheetsForecastService googleSheetsForecastService;
   private final InvestmentRepository repository;
   private final SummaryService summaryService;
-  private final AtomicLong entryIdGenerator = new AtomicLong(1);
-  private final AtomicLong forecastIdGenerator = new AtomicLong(1);
+  private final SheetsSyncService sheetsSyncService;
+  private final SnapshotService snapshotService;
+  private final EntriesLoadingService entriesLoadingService;
 
   @PostConstruct
   public void init() {
@@ -38,56 +33,56 @@ public class InvestmentService {
 
   private void loadInvestments() {
     log.info("Loading investments...");
-    List<Investment> investments = new ArrayList<>();
     try {
-      var loadedInvestments = googleSheetsService.readInvestmentsData();
-      log.debug("Loaded {} investments from Google Sheets", loadedInvestments.size());
-
-      // Assign IDs to entries if missing
-      for (var inv : loadedInvestments) {
-        if (inv.getEntries() != null) {
-          for (var entry : inv.getEntries()) {
-            if (entry.getId() == null) {
-              entry.setId(entryIdGenerator.getAndIncrement());
-            }
-          }
+      var replay = repository.replayJournal();
+      if (!replay.isEmpty()) {
+        log.info(
+            "Loaded {} investments from the journal, {} changes pending to sync",
+            repository.findAll().size(),
+            replay.pending().size());
+        if (!replay.pending().isEmpty()) {
+          syncReplayedChanges();
         }
+        return;
       }
-      investments.addAll(loadedInvestments);
-
-      var loadedForecasts = googleSheetsForecastService.readForecastsData(investments);
-      log.debug("Loaded {} forecasts from Google Sheets", loadedForecasts.size());
-      for (var forecast : loadedForecasts) {
-        if (forecast.getId() == null) {
-          forecast.setId(forecastIdGenerator.getAndIncrement());
-        } else {
-          forecastIdGenerator.set(Math.max(forecastIdGenerator.get(), forecast.getId() + 1));
-        }
-        if (forecast.getInvestment() != null) {
-          var inv = forecast.getInvestment();
-          if (inv.getForecasts() == null) {
-            inv.setForecasts(new ArrayList<>());
-          }
-          inv.getForecasts().add(forecast);
-        }
+      if (snapshotService.restore()) {
+        return;
       }
 
+      // The entries of closed investments may be left out, to be loaded in the background
+      var portfolio = entriesLoadingService.load();
+      var investments = portfolio.investmentsWithForecasts();
+      log.debug("Loaded {} investments from Google Sheets", investments.size());
+      log.debug("Loaded {} forecasts from Google Sheets", portfolio.forecasts().size());
+
+      // Missing entry and forecast IDs are allocated by the repository
       repository.saveAll(investments);
+      // What was just loaded is already in Google Sheets
+      repository.syncCompleted(repository.drainChanges(), true);
+      entriesLoadingService.start(portfolio.deferredEntries());
       log.info("Loaded investments successfully!");
     } catch (Exception e) {
       throw new RuntimeException("Failed to load investments", e);
     }
   }
 
+  // Changes journaled but not synced before the last shutdown are kept, and retried by later syncs
+  private void syncReplayedChanges() {
+    try {
+      sheetsSyncService.sync();
+    } catch (Exception e) {
+      log.error("Failed to write the replayed changes into Google Sheets", e);
+    }
+  }
+
   public List<Investment> getInvestments() {
     return repository.findAll();
   }
 
   public Investment createInvestment(Investment investment) {
-    List<Investment> investments = getInvestments();
     try {
       repository.save(investment);
-      googleSheetsService.writeInvestmentsData(getInvestments());
+      sheetsSyncService.sync();
     } catch (Exception e) {
       log.error("Failed to save investment", e);
       return null;
@@ -97,10 +92,14 @@ public class InvestmentService {
 
   public Investment updateInvestment(Long id, Investment investment) {
     investment.setId(id);
-    repository.save(investment);
-    List<Investment> investments = getInvestments();
     try {
-      googleSheetsService.writeInvestmentsData(investments);
+      repository.save(investment);
+    } catch (Exception e) {
+      log.error("Failed to update investment", e);
+      return null;
+    }
+    try {
+      sheetsSyncService.sync();
     } catch (Exception e) {
       log.error(
           "Failed to write investments into Google Sheets while updating an investment due to", e);
@@ -109,28 +108,24 @@ public class InvestmentService {
   }
 
   public Investment deleteInvestment(Long id) {
-    List<Investment> investments = getInvestments();
-    if (investments.isEmpty()) {
+    if (repository.isEmpty()) {
       log.error("Failed to load investments list while deleting one");
       return null;
     }
 
     Investment investmentToDelete;
     try {
-      investmentToDelete = getInvestment(investments, id);
+      investmentToDelete = getInvestment(id);
 
       log.debug("Deleting investment {} from the database", investmentToDelete);
       repository.delete(investmentToDelete);
-      investments.remove(investmentToDelete);
-
     } catch (Exception e) {
       log.error("Failed to delete investment", e);
       return null;
     }
 
     try {
-      googleSheetsService.writeInvestmentsData(investments);
-      writeForecasts();
+      sheetsSyncService.sync();
     } catch (Exception e) {
       log.error(
           "Failed to write investments into Google Sheets while deleting an investment due to", e);
@@ -140,35 +135,33 @@ public class InvestmentService {
   }
 
   public InvestmentEntry createInvestmentEntry(InvestmentEntry entry, Long id) {
-    List<Investment> investments = getInvestments();
-    if (investments.isEmpty()) {
+    if (repository.isEmpty()) {
       log.error("Failed to load investments list while creating an investment entry");
       return null;
     }
 
-    Investment investment = getInvestment(investments, id);
+    Investment investment = getInvestment(id);
     log.debug("Creating investment entry {} for investment {}", entry, investment);
 
     try {
-      if (entry.getId() == null) {
-        entry.setId(entryIdGenerator.getAndIncrement());
-      }
       if (entry.getDatetime() == null) {
         var now = LocalDateTime.now();
         log.debug("Setting current datetime to the entry {}", now);
         entry.setDatetime(now);
       }
-      entry.setInvestment(investment);
-
-      investment.getEntries().add(entry);
-      saveInvestment(investment);
+      saveInvestment(
+          id,
+          modified -> {
+            entry.setInvestment(modified);
+            modified.getEntries().add(entry);
+          });
     } catch (Exception e) {
       log.error("Failed to create investment entry {} due to:", entry, e);
       return null;
     }
 
     try {
-      googleSheetsService.writeInvestmentsData(investments);
+      sheetsSyncService.sync();
     } catch (Exception e) {
       log.error("Failed to write investments into Google Sheets while creating an entry due to", e);
       return null;
@@ -178,58 +171,84 @@ public class InvestmentService {
   }
 
   public InvestmentEntry updateInvestmentEntry(Long investmentId, InvestmentEntry entry) {
-    List<Investment> investments = getInvestments();
-    if (investments.isEmpty()) {
+    if (repository.isEmpty()) {
       log.error("Failed to load investments list while updating an investment entry");
       return null;
     }
-    Investment investment = getInvestment(investments, investmentId);
+    Investment investment = getInvestment(investmentId);
     InvestmentEntry existingEntry = getInvestmentEntry(investment, entry.getId());
     if (existingEntry == null) {
       log.error("Entry to update not found");
       return null;
     }
 
-    // Update fields
-    existingEntry.setDatetime(entry.getDatetime());
-    existingEntry.setComments(entry.getComments());
-    existingEntry.setInitialInvestedAmount(entry.getInitialInvestedAmount());
-    existingEntry.setReinvestedAmount(entry.getReinvestedAmount());
-    existingEntry.setProfitability(entry.getProfitability());
+    // The entry is replaced instead of mutated, so readers never see it half updated. The
+    // constructor also recalculates the derived fields.
+    var updatedEntry =
+        new InvestmentEntry(
+            entry.getDatetime(),
+            entry.getInitialInvestedAmount(),
+            entry.getReinvestedAmount(),
+            entry.getProfitability(),
+            entry.getComments(),
+            investment);
+    updatedEntry.setId(existingEntry.getId());
 
-    // Recalculate derived fields
-    saveInvestment(investment);
+    try {
+      saveInvestment(
+          investmentId,
+          modified -> {
+            var entries = modified.getEntries();
+            for (int i = 0; i < entries.size(); i++) {
+              if (existingEntry.getId().equals(entries.get(i).getId())) {
+                updatedEntry.setInvestment(modified);
+                entries.set(i, updatedEntry);
+                return;
+              }
+            }
+          });
+    } catch (Exception e) {
+      log.error("Failed to update investment entry {} due to:", updatedEntry, e);
+      return null;
+    }
 
     try {
-      googleSheetsService.writeInvestmentsData(investments);
+      sheetsSyncService.sync();
     } catch (Exception e) {
       log.error("Failed to write investments into Google Sheets while updating an entry due to", e);
       return null;
     }
-    return existingEntry;
+    return updatedEntry;
   }
 
   public InvestmentEntry deleteInvestmentEntry(Long investmentId, Long entryId) {
-    List<Investment> investments = getInvestments();
-    if (investments.isEmpty()) {
+    if (repository.isEmpty()) {
       log.error("Failed to load investments list while deleting an investment entry");
       return null;
     }
 
-    Investment investment = getInvestment(investments, investmentId);
+    Investment investment = getInvestment(investmentId);
     InvestmentEntry entryToDelete = getInvestmentEntry(investment, entryId);
+    if (entryToDelete == null) {
+      log.error("Entry to delete not found");
+      return null;
+    }
     log.info("Deleting investment entry {} from investment {}", entryToDelete, investment);
 
     try {
-      investment.getEntries().remove(entryToDelete);
-      saveInvestment(investment);
+      saveInvestment(
+          investmentId,
+          modified ->
+              modified
+                  .getEntries()
+                  .removeIf(candidate -> candidate.getId().equals(entryToDelete.getId())));
     } catch (Exception e) {
       log.error("Failed to delete investment entry {} due to:", entryToDelete, e);
       return null;
     }
 
     try {
-      googleSheetsService.writeInvestmentsData(investments);
+      sheetsSyncService.sync();
     } catch (Exception e) {
       log.error("Failed to write investments into Google Sheets while deleting an entry due to", e);
       return null;
@@ -239,9 +258,11 @@ public class InvestmentService {
   }
 
   public List<Forecast> getForecasts() {
-    return repository.findAll().stream()
-        .flatMap(inv -> inv.getForecasts() != null ? inv.getForecasts().stream() : Stream.empty())
-        .toList();
+    return repository.snapshot().forecasts();
+  }
+
+  public List<Forecast> getForecasts(Long investmentId) {
+    return repository.findForecastsByInvestmentId(investmentId);
   }
 
   public Forecast createForecast(Forecast forecast, Long investmentId) {
@@ -251,19 +272,20 @@ public class InvestmentService {
       return null;
     }
 
-    if (forecast.getId() == null) {
-      forecast.setId(forecastIdGenerator.getAndIncrement());
-    }
-    forecast.setInvestment(investment);
-
-    if (investment.getForecasts() == null) {
-      investment.setForecasts(new ArrayList<>());
+    try {
+      repository.modify(
+          investmentId,
+          modified -> {
+            forecast.setInvestment(modified);
+            modified.getForecasts().add(forecast);
+          });
+    } catch (Exception e) {
+      log.error("Failed to create forecast {} due to:", forecast, e);
+      return null;
     }
-    investment.getForecasts().add(forecast);
-    repository.save(investment);
 
     try {
-      writeForecasts();
+      sheetsSyncService.sync();
     } catch (IOException e) {
       log.error("Failed to write forecasts to Google Sheets", e);
       return null;
@@ -278,20 +300,42 @@ public class InvestmentService {
       return null;
     }
 
-    existingForecast.setName(forecast.getName());
-    existingForecast.setStartDate(forecast.getStartDate());
-    existingForecast.setEndDate(forecast.getEndDate());
-    existingForecast.setScenarioRates(forecast.getScenarioRates());
+    var investment = existingForecast.getInvestment();
+    var updatedForecast =
+        Forecast.builder()
+            .id(existingForecast.getId())
+            .investment(investment)
+            .name(forecast.getName())
+            .startDate(forecast.getStartDate())
+            .endDate(forecast.getEndDate())
+            .scenarioRates(forecast.getScenarioRates())
+            .build();
 
-    repository.save(existingForecast.getInvestment());
+    try {
+      repository.modify(
+          investment.getId(),
+          modified -> {
+            var forecasts = modified.getForecasts();
+            for (int i = 0; i < forecasts.size(); i++) {
+              if (existingForecast.getId().equals(forecasts.get(i).getId())) {
+                updatedForecast.setInvestment(modified);
+                forecasts.set(i, updatedForecast);
+                return;
+              }
+            }
+          });
+    } catch (Exception e) {
+      log.error("Failed to update forecast {} due to:", updatedForecast, e);
+      return null;
+    }
 
     try {
-      writeForecasts();
+      sheetsSyncService.sync();
     } catch (IOException e) {
       log.error("Failed to write forecasts to Google Sheets", e);
       return null;
     }
-    return existingForecast;
+    return updatedForecast;
   }
 
   public Forecast deleteForecast(Long id) {
@@ -301,12 +345,20 @@ public class InvestmentService {
       return null;
     }
 
-    var investment = forecast.getInvestment();
-    investment.getForecasts().remove(forecast);
-    repository.save(investment);
+    try {
+      repository.modify(
+          forecast.getInvestment().getId(),
+          modified ->
+              modified
+                  .getForecasts()
+                  .removeIf(candidate -> candidate.getId().equals(forecast.getId())));
+    } catch (Exception e) {
+      log.error("Failed to delete forecast {} due to:", forecast, e);
+      return null;
+    }
 
     try {
-      writeForecasts();
+      sheetsSyncService.sync();
     } catch (IOException e) {
       log.error("Failed to write forecasts to Google Sheets", e);
       return null;
@@ -315,43 +367,43 @@ public class InvestmentService {
   }
 
   private Forecast findForecastById(Long id) {
-    return repository.findAll().stream()
-        .flatMap(inv -> inv.getForecasts() != null ? inv.getForecasts().stream() : Stream.empty())
-        .filter(f -> f.getId().equals(id))
-        .findFirst()
-        .orElse(null);
-  }
-
-  private void writeForecasts() throws IOException {
-    googleSheetsForecastService.writeForecastsData(getForecasts());
+    return repository.findForecastById(id);
   }
 
+  // The totals are kept up to date by the repository, so the portfolio is not walked here
   public Summary getSummary() {
-    List<Investment> investments = getInvestments();
-    if (investments.isEmpty()) {
+    if (repository.isEmpty()) {
       log.error("Failed to load investments list while calculating the summary");
       return null;
     }
 
-    var summary = summaryService.calculateSummary(investments);
-    log.info("Calculated summary: {}", summary);
+    var summary = summaryService.calculateSummary(repository.totals());
+    log.debug("Calculated summary: {}", summary);
     return summary;
   }
 
-  private void saveInvestment(Investment investment) {
-    log.debug("Saving investment into the database: {}", investment);
-    repository.save(investment);
+  // The change is applied to a copy of the stored investment, which replaces it once saved. A
+  // change the journal failed to make durable is rolled back and thrown.
+  private void saveInvestment(Long investmentId, Consumer<Investment> change) {
+    log.debug("Saving investment {} into the database", investmentId);
+    if (repository.modify(investmentId, change) == null) {
+      throw new IllegalArgumentException("Investment " + investmentId + " not found");
+    }
     log.trace("Saved investment into the database");
   }
 
-  private Investment getInvestment(List<Investment> investments, Long id) {
-    return investments.stream().filter(i -> i.getId().equals(id)).findFirst().orElse(null);
+  private Investment getInvestment(Long id) {
+    return repository.findById(id);
   }
 
   private InvestmentEntry getInvestmentEntry(Investment investment, Long id) {
-    return investment.getEntries().stream()
-        .filter(e -> e.getId().equals(id))
-        .findFirst()
-        .orElse(null);
+    var entry = repository.findEntryById(id);
+    // Entries may point back to an earlier version of their investment, so only IDs are compared
+    if (entry == null
+        || investment == null
+        || !entry.getInvestment().getId().equals(investment.getId())) {
+      return null;
+    }
+    return entry;
   }
 }
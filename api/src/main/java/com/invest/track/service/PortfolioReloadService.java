@@ -0,0 +1,132 @@
+package com.invest.track.service;
+
+import com.invest.track.api.google.GoogleSheetsPortfolioLoader;
+import com.invest.track.repository.InvestmentRepository;
+import com.invest.track.repository.InvestmentRepository.RebuildResult;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Reloads the whole portfolio from Google Sheets without restarting. The full load runs in the
+ * background with no lock held, while requests keep being served by the current portfolio, and
+ * the loaded one is then swapped in at once. Investments written or synced during the load keep
+ * their current version, as the load may have missed them, and those with changes not yet synced
+ * are synced as usual. A single reload runs at a time.
+ */
+
+@Slf4j
+public class PortfolioReloadService {
+  private final InvestmentRepository repository;
+  private final GoogleSheetsPortfolioLoader loader;
+  private final SheetsSyncService sheetsSyncService;
+  private final ExecutorService executor;
+  private final AtomicBoolean running = new AtomicBoolean();
+  private volatile ReloadStatus status = ReloadStatus.NONE;
+
+  public PortfolioReloadService(
+      InvestmentRepository repository,
+      GoogleSheetsPortfolioLoader loader,
+      SheetsSyncService sheetsSyncService) {
+    this.repository = repository;
+    this.loader = loader;
+    this.sheetsSyncService = sheetsSyncService;
+    this.executor =
+        Executors.newSingleThreadExecutor(
+            runnable -> {
+              var thread = new Thread(runnable, "portfolio-reload");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  // Returns false, without starting another one, when a reload is already running
+  public boolean reload() {
+    if (!running.compareAndSet(false, true)) {
+      return false;
+    }
+    status = ReloadStatus.running(LocalDateTime.now());
+    executor.execute(this::rebuild);
+    return true;
+  }
+
+  public ReloadStatus status() {
+    return status;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private void rebuild() {
+    var startedAt = status.startedAt();
+    var start = System.nanoTime();
+    try {
+      log.info("Reloading the portfolio from Google Sheets");
+      // No sync is writing meanwhile, so whatever it wrote before is in what is loaded next
+      sheetsSyncService.whileNotSyncing(
+          () -> {
+            repository.beginRebuild();
+            return null;
+          });
+      RebuildResult result;
+      try {
+        result = repository.completeRebuild(loader.load().investmentsWithForecasts());
+      } finally {
+        repository.abortRebuild();
+      }
+      var elapsed = Duration.ofNanos(System.nanoTime() - start);
+      log.info(
+          "Reloaded {} investments from Google Sheets in {} ms, {} kept as changed meanwhile",
+          result.investments(),
+          elapsed.toMillis(),
+          result.carriedOver());
+      status =
+          new ReloadStatus(
+              State.COMPLETED,
+              startedAt,
+              elapsed,
+              result.investments(),
+              result.carriedOver(),
+              null);
+    } catch (Exception e) {
+      log.error("Failed to reload the portfolio from Google Sheets", e);
+      status =
+          new ReloadStatus(
+              State.FAILED,
+              startedAt,
+              Duration.ofNanos(System.nanoTime() - start),
+              0,
+              0,
+              e.getMessage());
+    } finally {
+      running.set(false);
+    }
+  }
+
+  public enum State {
+    NONE,
+    RUNNING,
+    COMPLETED,
+    FAILED
+  }
+
+  public record ReloadStatus(
+      State state,
+      LocalDateTime startedAt,
+      Duration elapsed,
+      int investments,
+      int carriedOver,
+      String error) {
+    static final ReloadStatus NONE = new ReloadStatus(State.NONE, null, Duration.ZERO, 0, 0, null);
+
+    static ReloadStatus running(LocalDateTime startedAt) {
+      return new ReloadStatus(State.RUNNING, startedAt, Duration.ZERO, 0, 0, null);
+    }
+  }
+}
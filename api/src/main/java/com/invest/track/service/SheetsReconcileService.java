@@ -0,0 +1,97 @@
+package com.invest.track.service;
+
+import com.invest.track.api.google.GoogleSheetsPortfolioLoader;
+import com.invest.track.repository.InvestmentRepository;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Picks up edits made by hand in Google Sheets while the service runs. Every sheet of the portfolio
+ * is polled periodically with a single request, and only the ranges whose content hash changed
+ * since the previous poll are decoded and merged into the repository. Investments with changes not
+ * yet synced keep their local version, which then overwrites the edit when it is synced. The first
+ * poll has no hashes to compare with, so it decodes every range, but still merges only what
+ * differs. Writes of the service change the hashes too, and the next poll finds nothing to merge.
+ */
+
+@Slf4j
+public class SheetsReconcileService {
+  private final InvestmentRepository repository;
+  private final GoogleSheetsPortfolioLoader loader;
+  private final SheetsSyncService sheetsSyncService;
+  private final ScheduledExecutorService scheduler;
+
+  // Only used from the scheduler thread
+  private Map<Integer, Long> hashes = Map.of();
+
+  public SheetsReconcileService(
+      InvestmentRepository repository,
+      GoogleSheetsPortfolioLoader loader,
+      SheetsSyncService sheetsSyncService,
+      boolean enabled,
+      Duration interval) {
+    this.repository = repository;
+    this.loader = loader;
+    this.sheetsSyncService = sheetsSyncService;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              var thread = new Thread(runnable, "sheets-reconcile");
+              thread.setDaemon(true);
+              return thread;
+            });
+    if (enabled) {
+      log.info("Polling Google Sheets for external edits every {}", interval);
+      scheduler.scheduleWithFixedDelay(
+          this::poll, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    scheduler.shutdownNow();
+  }
+
+  private void poll() {
+    // Entries still loading have no hashes to compare with, so the poll waits for them
+    if (repository.hasDeferredEntries()) {
+      log.debug("Skipping the Google Sheets poll while entries are loading");
+      return;
+    }
+    try {
+      var start = System.nanoTime();
+      var result =
+          sheetsSyncService.whileNotSyncing(
+              () -> {
+                var changes = loader.loadChanges(repository.snapshot().investments(), hashes);
+                var merge =
+                    changes.isEmpty()
+                        ? null
+                        : repository.mergeExternalEdits(
+                            changes.investments(), changes.entries(), changes.forecasts());
+                hashes = changes.hashes();
+                return merge;
+              });
+      if (result == null || result.isEmpty()) {
+        log.debug(
+            "No external edits found in Google Sheets in {} ms",
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return;
+      }
+      log.info(
+          "Merged external edits from Google Sheets in {} ms: {} investments updated, {} removed,"
+              + " {} kept with pending changes",
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+          result.merged(),
+          result.removed(),
+          result.kept());
+    } catch (Exception e) {
+      log.error("Failed to poll Google Sheets for external edits", e);
+    }
+  }
+}
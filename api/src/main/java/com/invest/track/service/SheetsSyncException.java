@@ -0,0 +1,19 @@
+package com.invest.track.service;
+
+import java.io.IOException;
+import java.util.Map;
+import lombok.Getter;
+
+// Reports which of the sheets written in parallel by a sync failed, and why
+
+@Getter
+public class SheetsSyncException extends IOException {
+  private static final long serialVersionUID = 1L;
+  private final Map<String, Exception> failuresBySheets;
+
+  public SheetsSyncException(Map<String, Exception> failuresBySheets) {
+    super("Failed to write to Google Sheets: " + failuresBySheets.keySet());
+    this.failuresBySheets = Map.copyOf(failuresBySheets);
+    failuresBySheets.values().forEach(this::addSuppressed);
+  }
+}
@@ -0,0 +1,290 @@
+package com.invest.track.service;
+
+import com.invest.track.api.google.GoogleSheetsForecastService;
+import com.invest.track.api.google.GoogleSheetsInvestmentService;
+import com.invest.track.repository.InvestmentRepository;
+import com.invest.track.repository.PortfolioChanges;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Propagates repository changes to Google Sheets, writing only the sheets that changed since the
+ * last successful sync. In write-through mode every change is written before returning, and what
+ * fails to be written is retried in the background. In write-behind mode changes are queued and a
+ * background flusher merges them into a single sync, which runs once no change arrived for the
+ * debounce window, or at the latest when the oldest queued change reaches the maximum staleness.
+ * Independent sheets are written in parallel on the given bounded executor, while the request
+ * executor of the client keeps them within the quota.
+ */
+
+@Slf4j
+public class SheetsSyncService {
+  private final GoogleSheetsInvestmentService googleSheetsService;
+  private final GoogleSheetsForecastService googleSheetsForecastService;
+  private final InvestmentRepository repository;
+  private final SyncMode mode;
+  private final Duration debounce;
+  private final Duration maxStaleness;
+  private final Duration retryDelay;
+  private final ExecutorService writeExecutor;
+
+  private final ScheduledExecutorService flusher;
+  private final AtomicInteger pendingSyncs = new AtomicInteger();
+  // Syncs run one at a time, so one returning means that the changes drained before it, maybe by
+  // another, were written or failed. Reading Google Sheets back needs it too, as a sync in flight
+  // has already drained the changes it is writing
+  private final ReentrantLock syncLock = new ReentrantLock(true);
+
+  // Guarded by this
+  private long oldestPendingNanos;
+  private boolean flushing;
+  private ScheduledFuture<?> scheduledFlush;
+
+  public SheetsSyncService(
+      GoogleSheetsInvestmentService googleSheetsService,
+      GoogleSheetsForecastService googleSheetsForecastService,
+      InvestmentRepository repository,
+      SyncMode mode,
+      Duration debounce,
+      Duration maxStaleness,
+      Duration retryDelay,
+      ExecutorService writeExecutor) {
+    this.googleSheetsService = googleSheetsService;
+    this.googleSheetsForecastService = googleSheetsForecastService;
+    this.repository = repository;
+    this.mode = mode;
+    this.debounce = debounce;
+    this.maxStaleness = maxStaleness;
+    this.retryDelay = retryDelay;
+    this.writeExecutor = writeExecutor;
+    this.flusher =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              var thread = new Thread(runnable, "sheets-sync");
+              thread.setDaemon(true);
+              return thread;
+            });
+    log.info("Google Sheets sync running in {} mode", mode);
+  }
+
+  public void sync() throws IOException {
+    if (mode == SyncMode.WRITE_THROUGH) {
+      try {
+        writePendingChanges();
+      } catch (IOException | RuntimeException e) {
+        // The failed changes were restored, and are written again even if nothing else changes
+        retryLater();
+        throw e;
+      }
+      return;
+    }
+    enqueue();
+  }
+
+  /*
+   * Runs the given task while no sync is writing to Google Sheets, so what it reads from there
+   * includes every change already drained from the repository, and no drained change is pending.
+   */
+  public <T> T whileNotSyncing(SheetsReadTask<T> task) throws IOException {
+    syncLock.lock();
+    try {
+      return task.read();
+    } finally {
+      syncLock.unlock();
+    }
+  }
+
+  // Number of syncs requested or retried but not yet written, each covering one or more changes
+  public int getPendingSyncs() {
+    return pendingSyncs.get();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    log.info("Flushing pending changes to Google Sheets before shutting down");
+    try {
+      // Queued behind any running flush, as the flusher has a single thread
+      flusher.submit(this::flush).get(maxStaleness.toMillis() + 30_000, TimeUnit.MILLISECONDS);
+    } catch (Exception e) {
+      log.error("Failed to flush {} pending syncs on shutdown", pendingSyncs.get(), e);
+    } finally {
+      flusher.shutdownNow();
+      writeExecutor.shutdownNow();
+    }
+  }
+
+  private synchronized void enqueue() {
+    var now = System.nanoTime();
+    if (pendingSyncs.getAndIncrement() == 0) {
+      oldestPendingNanos = now;
+    }
+    log.debug("Queued Google Sheets sync, {} syncs pending", pendingSyncs.get());
+
+    // Each change pushes the flush back by the debounce window, but never past the staleness bound
+    var deadline = oldestPendingNanos + maxStaleness.toNanos();
+    schedule(Math.max(0, Math.min(debounce.toNanos(), deadline - now)));
+  }
+
+  private synchronized void retryLater() {
+    if (pendingSyncs.getAndIncrement() == 0) {
+      oldestPendingNanos = System.nanoTime();
+    }
+    log.info("Retrying the failed Google Sheets sync in {}", retryDelay);
+    schedule(retryDelay.toNanos());
+  }
+
+  private synchronized void schedule(long delayNanos) {
+    if (flushing) {
+      // The running flush reschedules itself once it finishes
+      return;
+    }
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+    }
+    scheduledFlush = flusher.schedule(this::flush, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private void flush() {
+    int flushedSyncs;
+    synchronized (this) {
+      scheduledFlush = null;
+      flushedSyncs = pendingSyncs.get();
+      if (flushedSyncs == 0) {
+        return;
+      }
+      flushing = true;
+    }
+
+    var retry = false;
+    try {
+      log.info("Flushing {} syncs to Google Sheets", flushedSyncs);
+      writePendingChanges();
+      pendingSyncs.addAndGet(-flushedSyncs);
+    } catch (Exception e) {
+      log.error("Failed to flush {} syncs to Google Sheets, retrying later", flushedSyncs, e);
+      retry = true;
+    } finally {
+      synchronized (this) {
+        flushing = false;
+        if (retry) {
+          schedule(retryDelay.toNanos());
+        } else if (pendingSyncs.get() > 0) {
+          // Changes that arrived during the flush keep their staleness bound from now on
+          oldestPendingNanos = System.nanoTime();
+          schedule(debounce.toNanos());
+        }
+      }
+    }
+  }
+
+  // Lets the repository checkpoint its journal once the drained changes are in Google Sheets
+  private void writePendingChanges() throws IOException {
+    syncLock.lock();
+    try {
+      var changes = repository.drainChanges();
+      var synced = false;
+      try {
+        writeChanges(changes);
+        synced = true;
+      } finally {
+        repository.syncCompleted(changes, synced);
+      }
+    } finally {
+      syncLock.unlock();
+    }
+  }
+
+  /*
+   * Writes the investments and the forecasts in parallel, as they live in different sheets. Each
+   * part is restored on its own when it fails, so the next sync only writes again what failed.
+   */
+  private void writeChanges(PortfolioChanges changes) throws IOException {
+    if (changes.isEmpty()) {
+      log.debug("No changes to write to Google Sheets");
+      return;
+    }
+    var writes = new ArrayList<SheetsWrite>();
+    var investmentChanges = changes.withoutForecasts();
+    if (!investmentChanges.isEmpty()) {
+      writes.add(
+          submit(
+              "investments list and entries",
+              investmentChanges,
+              () ->
+                  googleSheetsService.writeInvestmentsData(
+                      repository::findAll,
+                      !changes.investments().isEmpty(),
+                      changes.summaries(),
+                      changes.entries(),
+                      changes.appendedEntries())));
+    }
+    var forecastChanges = changes.onlyForecasts();
+    if (!forecastChanges.isEmpty()) {
+      writes.add(
+          submit(
+              "forecasts",
+              forecastChanges,
+              () ->
+                  googleSheetsForecastService.writeForecastsData(
+                      () -> repository.snapshot().forecasts())));
+    }
+
+    var failures = new LinkedHashMap<String, Exception>();
+    for (var write : writes) {
+      try {
+        write.result().get();
+      } catch (ExecutionException e) {
+        log.error("Failed to write {} to Google Sheets", write.sheets(), e.getCause());
+        failures.put(write.sheets(), e.getCause() instanceof Exception cause ? cause : e);
+        // Nothing is lost, the next sync writes these changes again
+        repository.restoreChanges(write.changes());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failures.put(write.sheets(), e);
+        repository.restoreChanges(write.changes());
+      }
+    }
+    if (!failures.isEmpty()) {
+      throw new SheetsSyncException(failures);
+    }
+  }
+
+  private SheetsWrite submit(String sheets, PortfolioChanges changes, SheetsWriteTask task) {
+    return new SheetsWrite(
+        sheets,
+        changes,
+        writeExecutor.submit(
+            () -> {
+              task.write();
+              return null;
+            }));
+  }
+
+  private interface SheetsWriteTask {
+    void write() throws IOException;
+  }
+
+  public interface SheetsReadTask<T> {
+    T read() throws IOException;
+  }
+
+  private record SheetsWrite(String sheets, PortfolioChanges changes, Future<?> result) {}
+
+  public enum SyncMode {
+    WRITE_THROUGH,
+    WRITE_BEHIND
+  }
+}
@@ -0,0 +1,146 @@
+package com.invest.track.service;
+
+import com.invest.track.api.google.GoogleSheetsPortfolioLoader;
+import com.invest.track.repository.InvestmentRepository;
+import com.invest.track.repository.snapshot.SnapshotFile;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Keeps a binary snapshot of the portfolio on local disk, written periodically when the portfolio
+ * changed and once more on shutdown. At startup the portfolio is restored from it, so the service
+ * is ready without waiting for Google Sheets, and the snapshot is then reconciled in the background
+ * with a full load from Google Sheets, which stays the source of truth. Investments changed in the
+ * meantime keep their local version and are synced as usual. A failed reconciliation is retried
+ * with the next periodic write.
+ */
+
+@Slf4j
+public class SnapshotService {
+  private final SnapshotFile snapshotFile;
+  private final InvestmentRepository repository;
+  private final GoogleSheetsPortfolioLoader loader;
+  private final Duration interval;
+  private final ScheduledExecutorService scheduler;
+
+  // Only used from the scheduler thread
+  private long writtenVersion = -1;
+  private boolean reconciled = true;
+
+  public SnapshotService(
+      SnapshotFile snapshotFile,
+      InvestmentRepository repository,
+      GoogleSheetsPortfolioLoader loader,
+      Duration interval) {
+    this.snapshotFile = snapshotFile;
+    this.repository = repository;
+    this.loader = loader;
+    this.interval = interval;
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              var thread = new Thread(runnable, "portfolio-snapshot");
+              thread.setDaemon(true);
+              return thread;
+            });
+    if (snapshotFile != null) {
+      scheduler.scheduleWithFixedDelay(
+          this::runPeriodically, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  // Returns whether the portfolio was restored from the snapshot, and reconciles it if so
+  public boolean restore() {
+    if (snapshotFile == null) {
+      return false;
+    }
+    try {
+      var start = System.nanoTime();
+      var investments = snapshotFile.read();
+      if (investments == null) {
+        log.info("No portfolio snapshot found");
+        return false;
+      }
+      repository.saveAll(investments);
+      // Google Sheets held it when it was written, and the reconciliation fixes what changed since
+      repository.syncCompleted(repository.drainChanges(), true);
+      log.info(
+          "Restored {} investments from the portfolio snapshot in {} ms",
+          investments.size(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (Exception e) {
+      log.warn("Failed to restore the portfolio snapshot, loading from Google Sheets", e);
+      return false;
+    }
+    writtenVersion = repository.snapshot().version();
+    scheduler.execute(
+        () -> {
+          reconciled = false;
+          reconcile();
+        });
+    return true;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (snapshotFile == null) {
+      return;
+    }
+    try {
+      scheduler.submit(this::write).get(30, TimeUnit.SECONDS);
+    } catch (Exception e) {
+      log.error("Failed to write the portfolio snapshot on shutdown", e);
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  private void runPeriodically() {
+    if (!reconciled) {
+      reconcile();
+    }
+    write();
+  }
+
+  private void reconcile() {
+    try {
+      var start = System.nanoTime();
+      var portfolio = loader.load();
+      var kept = repository.reconcile(portfolio.investmentsWithForecasts());
+      reconciled = true;
+      log.info(
+          "Reconciled the portfolio snapshot with Google Sheets in {} ms, {} investments with"
+              + " pending changes kept",
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+          kept);
+    } catch (Exception e) {
+      log.error("Failed to reconcile the portfolio snapshot, retrying in {}", interval, e);
+    }
+  }
+
+  private void write() {
+    // Investments still missing their entries would be restored without them
+    if (repository.hasDeferredEntries()) {
+      return;
+    }
+    var snapshot = repository.snapshot();
+    if (snapshot.version() == writtenVersion) {
+      return;
+    }
+    try {
+      var start = System.nanoTime();
+      snapshotFile.write(snapshot.investments());
+      writtenVersion = snapshot.version();
+      log.debug(
+          "Wrote portfolio snapshot version {} in {} ms",
+          snapshot.version(),
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (Exception e) {
+      log.error("Failed to write the portfolio snapshot", e);
+    }
+  }
+}
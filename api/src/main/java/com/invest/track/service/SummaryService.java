@@ -1,32 +1,26 @@
 package com.invest.track.service;
 
-import com.invest.track.model.Investment;
 import com.invest.track.model.Summary;
-import java.util.List;
+import com.invest.track.repository.PortfolioTotals;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class SummaryService {
 
-  public Summary calculateSummary(List<Investment> investments) {
-    var investedAmount = 0.0;
-    var obtained = 0.0;
-    var benefit = 0.0;
+  // Built once per totals, as the repository publishes new ones only when something was written
+  private volatile SummarizedTotals summarized;
 
-    var initialInvestedAmount = 0.0;
-
-    for (Investment investment : investments) {
-      if (!investment.isActive() || investment.getLastEntry() == null) {
-        continue;
-      }
-      var lastEntry = investment.getLastEntry();
+  public Summary calculateSummary(PortfolioTotals totals) {
+    var cached = summarized;
+    if (cached != null && cached.totals() == totals) {
+      return cached.summary();
+    }
 
-      investedAmount += lastEntry.getTotalInvestedAmount();
-      obtained += lastEntry.getObtained();
-      benefit += lastEntry.getBenefit();
+    var investedAmount = totals.investedAmount();
+    var obtained = totals.obtained();
+    var benefit = totals.benefit();
 
-      initialInvestedAmount += lastEntry.getInitialInvestedAmount();
-    }
+    var initialInvestedAmount = totals.initialInvestedAmount();
 
     var initialObtained = obtained;
     var initialBenefit = initialObtained - initialInvestedAmount;
@@ -34,16 +28,19 @@ public class SummaryService {
     var profitability = calculateProfitability(benefit, investedAmount);
     var initialProfitability = calculateProfitability(initialBenefit, initialInvestedAmount);
 
-    return Summary.builder()
-        .investedAmount(investedAmount)
-        .obtained(obtained)
-        .benefit(benefit)
-        .profitability(profitability)
-        .initialInvestedAmount(initialInvestedAmount)
-        .initialObtained(initialObtained)
-        .initialBenefit(initialBenefit)
-        .initialProfitability(initialProfitability)
-        .build();
+    var summary =
+        Summary.builder()
+            .investedAmount(investedAmount)
+            .obtained(obtained)
+            .benefit(benefit)
+            .profitability(profitability)
+            .initialInvestedAmount(initialInvestedAmount)
+            .initialObtained(initialObtained)
+            .initialBenefit(initialBenefit)
+            .initialProfitability(initialProfitability)
+            .build();
+    summarized = new SummarizedTotals(totals, summary);
+    return summary;
   }
 
   private double calculateProfitability(double benefit, double investedAmount) {
@@ -53,4 +50,6 @@ public class SummaryService {
     }
     return benefit / investedAmount;
   }
+
+  private record SummarizedTotals(PortfolioTotals totals, Summary summary) {}
 }
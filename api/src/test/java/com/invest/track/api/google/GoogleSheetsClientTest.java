@@ -0,0 +1,29 @@
+package com.invest.track.api.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.HashSet;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class GoogleSheetsClientTest {
+
+  @Test
+  void temporaryTitleAvoidsTheTitlesOfOtherSheets() {
+    var takenTitles = new HashSet<>(List.of("Investments List", "~7", "~7~"));
+
+    assertThat(GoogleSheetsClient.temporaryTitle(7, takenTitles), is("~7~~"));
+    assertThat(GoogleSheetsClient.temporaryTitle(8, takenTitles), is("~8"));
+  }
+
+  @Test
+  void temporaryTitleIsNotHandedOutTwice() {
+    var takenTitles = new HashSet<String>();
+
+    GoogleSheetsClient.temporaryTitle(7, takenTitles);
+
+    assertThat(takenTitles.contains("~7"), is(true));
+    assertThat(GoogleSheetsClient.temporaryTitle(7, takenTitles), is("~7~"));
+  }
+}
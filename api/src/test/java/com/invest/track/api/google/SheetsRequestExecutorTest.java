@@ -0,0 +1,70 @@
+package com.invest.track.api.google;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.when;
+
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class SheetsRequestExecutorTest {
+  @Mock private AbstractGoogleClientRequest<Object> request;
+
+  @Test
+  void invalidRequestAsTrialCallLeavesTheBreakerOpen() throws Exception {
+    var circuitBreaker = new CircuitBreaker(1, Duration.ZERO);
+    circuitBreaker.onFailure();
+    when(request.execute()).thenThrow(badRequest());
+
+    assertThrows(HttpResponseException.class, () -> executor(circuitBreaker).read(request));
+
+    assertThat(circuitBreaker.isOpen(), is(true));
+  }
+
+  @Test
+  void invalidRequestDoesNotResetTheConsecutiveFailures() throws Exception {
+    var circuitBreaker = new CircuitBreaker(2, Duration.ofMinutes(1));
+    circuitBreaker.onFailure();
+    when(request.execute()).thenThrow(badRequest());
+
+    assertThrows(HttpResponseException.class, () -> executor(circuitBreaker).write(request));
+    circuitBreaker.onFailure();
+
+    assertThat(circuitBreaker.isOpen(), is(true));
+  }
+
+  @Test
+  void successfulTrialCallClosesTheBreaker() throws Exception {
+    var circuitBreaker = new CircuitBreaker(1, Duration.ZERO);
+    circuitBreaker.onFailure();
+    when(request.execute()).thenReturn("values");
+
+    assertThat(executor(circuitBreaker).read(request), is("values"));
+
+    assertThat(circuitBreaker.isOpen(), is(false));
+  }
+
+  private static SheetsRequestExecutor executor(CircuitBreaker circuitBreaker) {
+    return new SheetsRequestExecutor(
+        new TokenBucket(600, 10),
+        new TokenBucket(600, 10),
+        3,
+        Duration.ofMillis(1),
+        Duration.ofMillis(1),
+        circuitBreaker,
+        new SimpleMeterRegistry());
+  }
+
+  private static HttpResponseException badRequest() {
+    return new HttpResponseException.Builder(400, "Bad Request", new HttpHeaders()).build();
+  }
+}
@@ -0,0 +1,150 @@
+package com.invest.track.model.adapter;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.Callable;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+// Checks the single pass parsers against the parsing AdapterUtils did before them, kept below
+class SheetValueParserTest {
+  private final AdapterUtils adapterUtils = new AdapterUtils();
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "0",
+        "3.147,21 €",
+        "-3.147,21 €",
+        "3147,21€",
+        "1.000.000 €",
+        "0,1 €",
+        "-0,00 €",
+        " 12,5 ",
+        "9.007.199.254.740.992 €",
+        "123.456,7890123 €"
+      })
+  void currencyMatchesTheFormerParsing(String text) {
+    assertThat(Double.isNaN(SheetValueParser.parseCurrency(text)), is(false));
+    assertSameOutcome(() -> formerCurrency(text), () -> adapterUtils.parseCurrencyDouble(text));
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "",
+        "€",
+        "1e3",
+        "+5",
+        "10d",
+        "NaN",
+        "Infinity",
+        "1,2,3",
+        "12 34",
+        "5-",
+        "9.007.199.254.740.993 €",
+        "123.456,789012345678 €",
+        "1,00000000000000000000001"
+      })
+  void currencyOutsideTheCommonShapesFallsBack(String text) {
+    assertThat(Double.isNaN(SheetValueParser.parseCurrency(text)), is(true));
+    assertSameOutcome(() -> formerCurrency(text), () -> adapterUtils.parseCurrencyDouble(text));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"5 %", "12,5 %", "-0,75%", "0,125", "0.125", "%5", "100 %", "7"})
+  void percentageMatchesTheFormerParsing(String text) {
+    assertThat(Double.isNaN(SheetValueParser.parsePercentage(text)), is(false));
+    assertSameOutcome(() -> formerPercentage(text), () -> adapterUtils.parsePercentageDouble(text));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"", "%", "1e-2 %", "+5 %", "1.000,5 %", "5 % 5", "five"})
+  void percentageOutsideTheCommonShapesFallsBack(String text) {
+    assertThat(Double.isNaN(SheetValueParser.parsePercentage(text)), is(true));
+    assertSameOutcome(() -> formerPercentage(text), () -> adapterUtils.parsePercentageDouble(text));
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "24/05/2024 10:15:30",
+        "4/05/2024 9:05:00",
+        "04/05/2024 09:05:00",
+        "31/12/1999 23:59:59",
+        "29/02/2024 00:00:00",
+        "31/02/2024 10:00:00",
+        "31/04/2023 10:00:00"
+      })
+  void dateTimeMatchesTheFormerParsing(String text) {
+    assertThat(SheetValueParser.parseDateTime(text), notNullValue());
+    assertSameOutcome(() -> formerDateTime(text), () -> adapterUtils.parseDateTime(text));
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+      strings = {
+        "4/5/2024 10:00:00",
+        "24/05/24 10:00:00",
+        "24/05/2024",
+        "2024-05-24T10:00:00",
+        "24/05/2024 10:00",
+        "24/05/2024 24:00:00",
+        "24/13/2024 10:00:00",
+        "32/05/2024 10:00:00",
+        "00/05/2024 10:00:00",
+        "24/05/2024 10:60:00",
+        " 24/05/2024 10:00:00",
+        "24/05/2024 10:00:00 "
+      })
+  void dateTimeOutsideTheCommonShapesFallsBack(String text) {
+    assertThat(SheetValueParser.parseDateTime(text), nullValue());
+    assertSameOutcome(() -> formerDateTime(text), () -> adapterUtils.parseDateTime(text));
+  }
+
+  // The outcome is the parsed value, or else the type of the exception thrown
+  private static void assertSameOutcome(Callable<Object> former, Callable<Object> current) {
+    assertThat(outcomeOf(current), is(outcomeOf(former)));
+  }
+
+  private static Object outcomeOf(Callable<Object> parsing) {
+    try {
+      return parsing.call();
+    } catch (Exception e) {
+      return e.getClass();
+    }
+  }
+
+  private static Double formerCurrency(String str) {
+    return Double.parseDouble(str.replace(".", "").replace("€", "").replace(",", "."));
+  }
+
+  private static Double formerPercentage(String str) {
+    var absolutePercentage = !str.contains("%");
+    var percentage = Double.parseDouble(str.replace("%", "").replace(",", "."));
+    return absolutePercentage ? percentage : percentage / 100;
+  }
+
+  private static LocalDateTime formerDateTime(String str) {
+    for (var pattern :
+        List.of(
+            "dd/MM/yyyy HH:mm:ss",
+            "dd/MM/yyyy H:mm:ss",
+            "d/MM/yyyy HH:mm:ss",
+            "d/MM/yyyy H:mm:ss")) {
+      try {
+        return LocalDateTime.parse(str, DateTimeFormatter.ofPattern(pattern));
+      } catch (DateTimeException e) {
+        // Tried with the next pattern
+      }
+    }
+    throw new DateTimeException("Failed to parse date time value \"" + str + "\"");
+  }
+}
@@ -0,0 +1,59 @@
+package com.invest.track.repository;
+
+import com.invest.track.repository.journal.GroupCommitJournal;
+import com.invest.track.repository.journal.JournalRecord;
+import com.invest.track.repository.journal.JournalRecord.Type;
+import com.invest.track.repository.journal.JournalReplay;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Journals nothing, taking the given time for every commit as a store syncing to disk would
+class DelayedJournal extends GroupCommitJournal<JournalRecord> {
+  private final Duration commitDelay;
+  private final AtomicInteger commits = new AtomicInteger();
+  private final AtomicInteger committedRecords = new AtomicInteger();
+
+  DelayedJournal(Duration commitDelay) {
+    super("delayed", Duration.ZERO, 512, new SimpleMeterRegistry());
+    this.commitDelay = commitDelay;
+  }
+
+  int commits() {
+    return commits.get();
+  }
+
+  int committedRecords() {
+    return committedRecords.get();
+  }
+
+  @Override
+  protected JournalReplay readJournal() {
+    return new JournalReplay(List.of(), List.of(), 0);
+  }
+
+  @Override
+  protected JournalRecord encode(JournalRecord record) {
+    return record;
+  }
+
+  @Override
+  protected void commit(List<Pending<JournalRecord>> group) throws IOException {
+    try {
+      TimeUnit.NANOSECONDS.sleep(commitDelay.toNanos());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while committing");
+    }
+    commits.incrementAndGet();
+    committedRecords.addAndGet(
+        (int) group.stream().filter(pending -> pending.record().type() != Type.CHECKPOINT).count());
+  }
+
+  @Override
+  protected void closeStore() {}
+}
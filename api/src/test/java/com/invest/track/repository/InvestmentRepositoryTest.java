@@ -0,0 +1,389 @@
+package com.invest.track.repository;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.invest.track.model.Investment;
+import com.invest.track.model.InvestmentEntry;
+import com.invest.track.repository.journal.FileJournal;
+import com.invest.track.repository.journal.JournalReplay;
+import com.invest.track.repository.journal.PortfolioJournal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class InvestmentRepositoryTest {
+  private final FailingJournal journal = new FailingJournal();
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private InvestmentRepository repository;
+
+  @BeforeEach
+  void setUp() {
+    repository = new InvestmentRepository(new IdAllocator(), journal);
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void modifyLeavesThePublishedInvestmentUnchanged() {
+    repository.save(investment("Fund", 2));
+    var published = repository.snapshot().investments().get(0);
+
+    var modified =
+        repository.modify(
+            published.getId(), investment -> investment.getEntries().add(entry(investment, 3)));
+
+    assertThat(published.getEntries().size(), is(2));
+    assertThat(modified.getEntries().size(), is(3));
+    assertThat(repository.snapshot().investments().get(0), sameInstance(modified));
+    assertThat(repository.findById(published.getId()), sameInstance(modified));
+  }
+
+  @Test
+  void modifyOfAMissingInvestmentReturnsNull() {
+    assertThat(repository.modify(42L, investment -> {}), nullValue());
+  }
+
+  @Test
+  void modifyNotMadeDurableIsRolledBack() {
+    repository.save(investment("Fund", 2));
+    var totals = repository.totals();
+    repository.drainChanges();
+    journal.failing = true;
+
+    assertThrows(
+        UncheckedIOException.class,
+        () ->
+            repository.modify(
+                1L, investment -> investment.getEntries().add(entry(investment, 100))));
+
+    assertThat(repository.findById(1L).getEntries().size(), is(2));
+    assertThat(repository.snapshot().investments().get(0).getEntries().size(), is(2));
+    assertThat(repository.totals().investedAmount(), is(totals.investedAmount()));
+    // The rollback is synced too, in case a sync wrote the rolled back change meanwhile
+    assertThat(repository.drainChanges().entries().contains(1L), is(true));
+  }
+
+  @Test
+  void saveOfANewInvestmentNotMadeDurableIsRolledBack() {
+    journal.failing = true;
+
+    assertThrows(UncheckedIOException.class, () -> repository.save(investment("Fund", 1)));
+
+    assertThat(repository.isEmpty(), is(true));
+    assertThat(repository.snapshot().investments().isEmpty(), is(true));
+  }
+
+  @Test
+  void deleteNotMadeDurableIsRolledBack() {
+    repository.save(investment("Fund", 1));
+    var stored = repository.findById(1L);
+    journal.failing = true;
+
+    assertThrows(UncheckedIOException.class, () -> repository.delete(stored));
+
+    assertThat(repository.findById(1L), sameInstance(stored));
+    assertThat(repository.snapshot().investments().size(), is(1));
+  }
+
+  @Test
+  void writesToOtherInvestmentsDoNotWaitForAHeldStripe() throws Exception {
+    repository.save(investment("First", 1));
+    repository.save(investment("Second", 1));
+    var holding = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    var holder =
+        executor.submit(
+            () ->
+                repository.withLock(
+                    1L,
+                    () -> {
+                      holding.countDown();
+                      await(release);
+                    }));
+    assertThat(holding.await(5, TimeUnit.SECONDS), is(true));
+
+    executor.submit(() -> repository.modify(2L, rename("Other"))).get(5, TimeUnit.SECONDS);
+    var same = executor.submit(() -> repository.modify(1L, rename("Same")));
+    assertThrows(TimeoutException.class, () -> same.get(200, TimeUnit.MILLISECONDS));
+
+    release.countDown();
+    same.get(5, TimeUnit.SECONDS);
+    holder.get(5, TimeUnit.SECONDS);
+    assertThat(repository.findById(1L).getName(), is("Same"));
+    assertThat(repository.findById(2L).getName(), is("Other"));
+  }
+
+  @Test
+  void publishedSnapshotsStayUnchangedUnderConcurrentWriters() throws Exception {
+    for (int i = 0; i < 4; i++) {
+      repository.save(investment("Fund " + i, 1));
+    }
+    var writesPerThread = 200;
+    var start = new CountDownLatch(1);
+    var writers = new ArrayList<Future<?>>();
+    // Two writers per investment, so writes to the same one race as well
+    for (int thread = 0; thread < 8; thread++) {
+      var investmentId = (long) (thread % 4) + 1;
+      writers.add(
+          executor.submit(
+              () -> {
+                await(start);
+                for (int i = 0; i < writesPerThread; i++) {
+                  repository.modify(
+                      investmentId,
+                      investment -> investment.getEntries().add(entry(investment, 1)));
+                }
+              }));
+    }
+
+    var seen = new ArrayList<PortfolioSnapshot>();
+    var seenSizes = new ArrayList<List<Integer>>();
+    start.countDown();
+    while (!writers.stream().allMatch(Future::isDone)) {
+      var snapshot = repository.snapshot();
+      if (seen.isEmpty() || seen.get(seen.size() - 1) != snapshot) {
+        seen.add(snapshot);
+        seenSizes.add(entriesSizes(snapshot));
+      }
+    }
+    for (var writer : writers) {
+      writer.get(5, TimeUnit.SECONDS);
+    }
+
+    for (int i = 0; i < seen.size(); i++) {
+      assertThat(entriesSizes(seen.get(i)), is(seenSizes.get(i)));
+      if (i > 0) {
+        assertThat(seen.get(i - 1).version() < seen.get(i).version(), is(true));
+        for (int investment = 0; investment < 4; investment++) {
+          var previous = seenSizes.get(i - 1).get(investment);
+          assertThat(previous <= seenSizes.get(i).get(investment), is(true));
+        }
+      }
+    }
+    var expected = 1 + 2 * writesPerThread;
+    assertThat(
+        entriesSizes(repository.snapshot()), is(List.of(expected, expected, expected, expected)));
+  }
+
+  @Test
+  void concurrentWritesShareJournalCommits() throws Exception {
+    var delayedJournal = new DelayedJournal(Duration.ofMillis(5));
+    var journaled = new InvestmentRepository(new IdAllocator(), delayedJournal);
+    journaled.replayJournal();
+    try {
+      var writers = new ArrayList<Future<?>>();
+      for (int thread = 0; thread < 8; thread++) {
+        writers.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 20; i++) {
+                    journaled.save(investment("Fund", 1));
+                  }
+                }));
+      }
+      for (var writer : writers) {
+        writer.get(30, TimeUnit.SECONDS);
+      }
+
+      // Every save returned once durable, while waiting writers were committed together
+      assertThat(delayedJournal.committedRecords(), is(160));
+      assertThat(delayedJournal.commits(), lessThan(160));
+      assertThat(journaled.findAll().size(), is(160));
+    } finally {
+      delayedJournal.close();
+    }
+  }
+
+  @Test
+  void reconcileKeepsTheInvestmentsWithChangesNotYetSynced() {
+    repository.save(investment("Local", 1));
+    repository.save(investment("Synced", 1));
+    repository.save(investment("Removed", 1));
+    repository.syncCompleted(repository.drainChanges(), true);
+    repository.modify(1L, rename("Local edit"));
+
+    var kept = repository.reconcile(List.of(loaded(1L, "Sheets edit"), loaded(2L, "Sheets edit")));
+
+    assertThat(kept, is(1));
+    assertThat(repository.findById(1L).getName(), is("Local edit"));
+    assertThat(repository.findById(2L).getName(), is("Sheets edit"));
+    assertThat(repository.findById(3L), nullValue());
+    // What came from Google Sheets is not synced back
+    assertThat(repository.drainChanges().investments(), contains(1L));
+  }
+
+  @Test
+  void mergedEntriesLeaveThePublishedInvestmentUnchanged() {
+    repository.save(investment("Fund", 2));
+    repository.syncCompleted(repository.drainChanges(), true);
+    var published = repository.findById(1L);
+    var sheetInvestment = investment("Fund", 3);
+
+    var result =
+        repository.mergeExternalEdits(null, Map.of(1L, sheetInvestment.getEntries()), null);
+
+    assertThat(result.merged(), is(1));
+    assertThat(published.getEntries().size(), is(2));
+    var merged = repository.findById(1L);
+    assertThat(merged.getEntries().size(), is(3));
+    // The entries that were already stored keep their IDs
+    assertThat(merged.getEntries().get(1).getId(), is(published.getEntries().get(1).getId()));
+    assertThat(repository.drainChanges().isEmpty(), is(true));
+  }
+
+  @Test
+  void rebuildCarriesOverTheWritesMadeWhileLoading() {
+    repository.save(investment("Edited", 1));
+    repository.save(investment("Reloaded", 1));
+    repository.syncCompleted(repository.drainChanges(), true);
+    var before = repository.snapshot();
+
+    repository.beginRebuild();
+    repository.modify(1L, rename("Edited while loading"));
+    var result = repository.completeRebuild(List.of(loaded(1L, "Stale"), loaded(2L, "Loaded")));
+
+    assertThat(result.carriedOver(), is(1));
+    assertThat(repository.findById(1L).getName(), is("Edited while loading"));
+    assertThat(repository.findById(2L).getName(), is("Loaded"));
+    assertThat(before.investments().get(1).getName(), is("Reloaded"));
+  }
+
+  @Test
+  void journalReplayRestoresThePortfolioAfterARestart(@TempDir Path directory) throws Exception {
+    var path = directory.resolve("journal.log");
+    var firstJournal = fileJournal(path);
+    var first = new InvestmentRepository(new IdAllocator(), firstJournal);
+    first.replayJournal();
+    first.save(investment("Kept", 2));
+    first.save(investment("Deleted", 1));
+    first.modify(1L, investment -> investment.getEntries().add(entry(investment, 9)));
+    first.delete(first.findById(2L));
+    firstJournal.close();
+
+    var secondJournal = fileJournal(path);
+    var second = new InvestmentRepository(new IdAllocator(), secondJournal);
+    try {
+      second.replayJournal();
+
+      assertThat(second.findAll().size(), is(1));
+      assertThat(second.findById(1L).getEntries().size(), is(3));
+      assertThat(second.findById(2L), nullValue());
+      // Nothing was checkpointed, so the replayed changes are synced again
+      assertThat(second.drainChanges().investments(), containsInAnyOrder(1L, 2L));
+      second.save(investment("New", 0));
+      assertThat(second.findById(3L).getName(), is("New"));
+    } finally {
+      secondJournal.close();
+    }
+  }
+
+  static Investment investment(String name, int entries) {
+    var investment =
+        new Investment(null, name, "", "EUR", LocalDateTime.of(2024, 1, 1, 0, 0), null, false);
+    var investmentEntries = new ArrayList<InvestmentEntry>();
+    for (int i = 0; i < entries; i++) {
+      investmentEntries.add(entry(investment, i));
+    }
+    investment.setEntries(investmentEntries);
+    investment.setForecasts(new ArrayList<>());
+    return investment;
+  }
+
+  static InvestmentEntry entry(Investment investment, int day) {
+    return new InvestmentEntry(
+        LocalDateTime.of(2024, 1, 1, 0, 0).plusDays(day), 100, 10, 0.05, "", investment);
+  }
+
+  private static Investment loaded(Long id, String name) {
+    var investment = investment(name, 1);
+    investment.setId(id);
+    return investment;
+  }
+
+  private static Consumer<Investment> rename(String name) {
+    return investment -> investment.setName(name);
+  }
+
+  private static List<Integer> entriesSizes(PortfolioSnapshot snapshot) {
+    return snapshot.investments().stream()
+        .map(investment -> investment.getEntries().size())
+        .toList();
+  }
+
+  private static FileJournal fileJournal(Path path) {
+    return new FileJournal(path, Duration.ZERO, 512, 10_000, new SimpleMeterRegistry());
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Journals nothing, failing every commit while told to
+  private static class FailingJournal implements PortfolioJournal {
+    private volatile boolean failing;
+
+    @Override
+    public JournalReplay replay() {
+      return new JournalReplay(List.of(), List.of(), 0);
+    }
+
+    @Override
+    public CompletableFuture<Long> appendSave(Investment investment) {
+      return commit();
+    }
+
+    @Override
+    public CompletableFuture<Long> appendDelete(Long investmentId) {
+      return commit();
+    }
+
+    @Override
+    public long lastSequence() {
+      return 0;
+    }
+
+    @Override
+    public void checkpoint(long sequence) {}
+
+    @Override
+    public void close() {}
+
+    private CompletableFuture<Long> commit() {
+      return failing
+          ? CompletableFuture.failedFuture(new IOException("Disk full"))
+          : CompletableFuture.completedFuture(0L);
+    }
+  }
+}
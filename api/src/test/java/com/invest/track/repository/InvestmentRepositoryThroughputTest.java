@@ -0,0 +1,84 @@
+package com.invest.track.repository;
+
+import static com.invest.track.repository.InvestmentRepositoryTest.entry;
+import static com.invest.track.repository.InvestmentRepositoryTest.investment;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+// Measures client writes per second as writer threads are added, with a journal taking a while to
+// commit, as writes to different investments share commits instead of waiting for each other
+
+@Slf4j
+class InvestmentRepositoryThroughputTest {
+  private static final Duration COMMIT_DELAY = Duration.ofMillis(2);
+  private static final int WRITES_PER_THREAD = 100;
+
+  @Test
+  void throughputGrowsWithTheWriterThreads() throws Exception {
+    var throughputs = new LinkedHashMap<Integer, Double>();
+    for (var threads : List.of(1, 2, 4, 8)) {
+      throughputs.put(threads, writesPerSecond(threads));
+    }
+
+    throughputs.forEach(
+        (threads, throughput) ->
+            log.info("{} writer threads: {} writes/s", threads, Math.round(throughput)));
+    assertThat(throughputs.get(8), greaterThan(2 * throughputs.get(1)));
+  }
+
+  private static double writesPerSecond(int threads) throws Exception {
+    var journal = new DelayedJournal(COMMIT_DELAY);
+    var repository = new InvestmentRepository(new IdAllocator(), journal);
+    var executor = Executors.newFixedThreadPool(threads);
+    try {
+      repository.replayJournal();
+      for (int i = 0; i < threads; i++) {
+        repository.save(investment("Fund " + i, 1));
+      }
+
+      var start = new CountDownLatch(1);
+      var writers = new ArrayList<Future<?>>();
+      for (long investmentId = 1; investmentId <= threads; investmentId++) {
+        var id = investmentId;
+        writers.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  for (int i = 0; i < WRITES_PER_THREAD; i++) {
+                    repository.modify(
+                        id, investment -> investment.getEntries().add(entry(investment, 1)));
+                  }
+                  return null;
+                }));
+      }
+      var begin = System.nanoTime();
+      start.countDown();
+      for (var writer : writers) {
+        writer.get(60, TimeUnit.SECONDS);
+      }
+      var elapsed = System.nanoTime() - begin;
+
+      // No write was lost on the way
+      for (long investmentId = 1; investmentId <= threads; investmentId++) {
+        assertThat(
+            repository.findById(investmentId).getEntries().size(), is(1 + WRITES_PER_THREAD));
+      }
+      return threads * WRITES_PER_THREAD / (elapsed / 1e9);
+    } finally {
+      executor.shutdownNow();
+      journal.close();
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package com.invest.track.repository.journal;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import com.invest.track.model.Forecast;
+import com.invest.track.model.Forecast.ForecastScenario;
+import com.invest.track.model.Investment;
+import com.invest.track.model.InvestmentEntry;
+import com.invest.track.repository.journal.JournalRecord.Type;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+// Runs against H2 in MySQL mode, as the journal does when embedded
+class JdbcJournalTest {
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final JdbcDataSource dataSource = new JdbcDataSource();
+  private JdbcJournal journal;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    dataSource.setURL(
+        "jdbc:h2:mem:journal-"
+            + UUID.randomUUID()
+            + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+    journal = open(Duration.ZERO);
+    assertThat(journal.replay().isEmpty(), is(true));
+  }
+
+  @AfterEach
+  void tearDown() {
+    journal.close();
+  }
+
+  @Test
+  void appendedInvestmentIsReplayedWithItsEntriesAndForecasts() throws Exception {
+    var investment = investment(1L, "Fund", 3);
+
+    assertThat(journal.appendSave(investment).get(5, TimeUnit.SECONDS), is(1L));
+
+    var replay = reopen();
+    assertThat(replay.synced(), is(empty()));
+    assertThat(replay.lastSequence(), is(1L));
+    assertThat(replay.pending().size(), is(1));
+    var record = replay.pending().get(0);
+    assertThat(record.type(), is(Type.SAVE));
+    assertThat(record.sequence(), is(1L));
+    var replayed = record.investment();
+    assertThat(replayed.getName(), is("Fund"));
+    assertThat(replayed.getStartDateTime(), is(investment.getStartDateTime()));
+    assertThat(
+        replayed.getEntries().stream().map(InvestmentEntry::getId).toList(),
+        contains(10L, 11L, 12L));
+    assertThat(replayed.getEntries().get(2).getDatetime(), is(entryDateTime(2)));
+    var forecast = replayed.getForecasts().get(0);
+    assertThat(forecast.getEndDate(), is(LocalDate.of(2030, 1, 1)));
+    assertThat(forecast.getScenarioRates().get(ForecastScenario.OPTIMIST), is(0.08));
+  }
+
+  @Test
+  void recordsAppendedWithinTheWindowShareACommit() throws Exception {
+    journal.close();
+    journal = open(Duration.ofMillis(200));
+    journal.replay();
+
+    var committed = new ArrayList<CompletableFuture<Long>>();
+    for (long id = 1; id <= 10; id++) {
+      committed.add(journal.appendSave(investment(id, "Fund " + id, 1)));
+    }
+    // Later saves of the same investment replace the earlier ones within the group
+    committed.add(journal.appendSave(investment(1L, "Renamed", 2)));
+    CompletableFuture.allOf(committed.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+    var groups = meterRegistry.get("journal.group.size").summary();
+    assertThat(groups.totalAmount(), is(11.0));
+    assertThat(groups.count(), lessThan(11L));
+    var replay = reopen();
+    assertThat(replay.pending().size(), is(10));
+    var renamed = replay.pending().get(replay.pending().size() - 1);
+    assertThat(renamed.investmentId(), is(1L));
+    assertThat(renamed.sequence(), is(11L));
+    assertThat(renamed.investment().getName(), is("Renamed"));
+    assertThat(renamed.investment().getEntries().size(), is(2));
+  }
+
+  @Test
+  void checkpointMovesTheSyncedRecordsOutOfThePendingOnes() throws Exception {
+    journal.appendSave(investment(1L, "Closed", 1)).get(5, TimeUnit.SECONDS);
+    journal.appendSave(investment(2L, "Open", 1)).get(5, TimeUnit.SECONDS);
+    journal.appendDelete(1L).get(5, TimeUnit.SECONDS);
+    journal.checkpoint(2);
+
+    var replay = reopen();
+    assertThat(replay.synced().stream().map(Investment::getId).toList(), contains(2L));
+    assertThat(replay.pending().size(), is(1));
+    assertThat(replay.pending().get(0).type(), is(Type.DELETE));
+    assertThat(replay.pending().get(0).investmentId(), is(1L));
+    assertThat(replay.lastSequence(), is(3L));
+
+    journal.checkpoint(3);
+    replay = reopen();
+    assertThat(replay.pending(), is(empty()));
+    assertThat(replay.lastSequence(), is(3L));
+    assertThat(journal.appendSave(investment(3L, "New", 0)).get(5, TimeUnit.SECONDS), is(4L));
+  }
+
+  @Test
+  void checkpointNeverMovesBackwards() throws Exception {
+    journal.appendSave(investment(1L, "Fund", 1)).get(5, TimeUnit.SECONDS);
+    journal.appendSave(investment(2L, "Fund", 1)).get(5, TimeUnit.SECONDS);
+    journal.checkpoint(2);
+    journal.checkpoint(1);
+
+    var replay = reopen();
+    assertThat(replay.synced().size(), is(2));
+    assertThat(replay.pending(), is(empty()));
+  }
+
+  // Closing waits for the queued records, checkpoints included, to be written
+  private JournalReplay reopen() throws Exception {
+    journal.close();
+    journal = open(Duration.ZERO);
+    return journal.replay();
+  }
+
+  private JdbcJournal open(Duration groupCommitWindow) {
+    return new JdbcJournal(dataSource, groupCommitWindow, 512, meterRegistry);
+  }
+
+  private static Investment investment(Long id, String name, int entries) {
+    var investment =
+        new Investment(id, name, "", "EUR", LocalDateTime.of(2024, 1, 1, 9, 30), null, false);
+    var investmentEntries = new ArrayList<InvestmentEntry>();
+    for (int i = 0; i < entries; i++) {
+      var entry = new InvestmentEntry(entryDateTime(i), 100, 10, 0.05, "", investment);
+      entry.setId(id * 10 + i);
+      investmentEntries.add(entry);
+    }
+    investment.setEntries(investmentEntries);
+    var forecast =
+        Forecast.builder()
+            .id(id * 100)
+            .investment(investment)
+            .name("Plan")
+            .startDate(LocalDate.of(2024, 1, 1))
+            .endDate(LocalDate.of(2030, 1, 1))
+            .scenarioRates(Map.of(ForecastScenario.NEUTRAL, 0.05, ForecastScenario.OPTIMIST, 0.08))
+            .build();
+    investment.setForecasts(new ArrayList<>(List.of(forecast)));
+    return investment;
+  }
+
+  private static LocalDateTime entryDateTime(int day) {
+    return LocalDateTime.of(2024, 1, 1, 12, 0, 0, 123_456_000).plusDays(day);
+  }
+}
@@ -0,0 +1,144 @@
+package com.invest.track.service;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.invest.track.api.google.GoogleSheetsForecastService;
+import com.invest.track.api.google.GoogleSheetsInvestmentService;
+import com.invest.track.model.Investment;
+import com.invest.track.model.InvestmentEntry;
+import com.invest.track.repository.IdAllocator;
+import com.invest.track.repository.InvestmentRepository;
+import com.invest.track.repository.journal.PortfolioJournal;
+import com.invest.track.service.SheetsSyncService.SyncMode;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class SheetsSyncServiceTest {
+  @Mock private GoogleSheetsInvestmentService googleSheetsService;
+  @Mock private GoogleSheetsForecastService googleSheetsForecastService;
+
+  private InvestmentRepository repository;
+  private SheetsSyncService syncService;
+
+  @BeforeEach
+  void setUp() {
+    repository = new InvestmentRepository(new IdAllocator(), PortfolioJournal.disabled());
+    syncService =
+        new SheetsSyncService(
+            googleSheetsService,
+            googleSheetsForecastService,
+            repository,
+            SyncMode.WRITE_THROUGH,
+            Duration.ofMillis(10),
+            Duration.ofSeconds(1),
+            Duration.ofMillis(50),
+            Executors.newFixedThreadPool(2));
+  }
+
+  @AfterEach
+  void tearDown() {
+    syncService.shutdown();
+  }
+
+  @Test
+  void writeThroughSyncWaitsForTheSyncThatDrainedItsChange() throws Exception {
+    var writing = new CountDownLatch(1);
+    var release = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              writing.countDown();
+              release.await();
+              return null;
+            })
+        .when(googleSheetsService)
+        .writeInvestmentsData(any(), anyBoolean(), anySet(), anySet(), anyMap());
+    repository.save(investment("first"));
+    repository.save(investment("second"));
+
+    // The first sync drains both changes, so the second one has nothing left to drain
+    var first = CompletableFuture.runAsync(this::sync);
+    assertThat(writing.await(5, TimeUnit.SECONDS), is(true));
+    var second = CompletableFuture.runAsync(this::sync);
+
+    assertThrows(TimeoutException.class, () -> second.get(200, TimeUnit.MILLISECONDS));
+    release.countDown();
+    first.get(5, TimeUnit.SECONDS);
+    second.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void failedWriteThroughSyncIsRetriedInTheBackground() throws Exception {
+    doThrow(new IOException("Quota exceeded"))
+        .doNothing()
+        .when(googleSheetsService)
+        .writeInvestmentsData(any(), anyBoolean(), anySet(), anySet(), anyMap());
+    repository.save(investment("failing"));
+
+    assertThrows(SheetsSyncException.class, () -> syncService.sync());
+
+    verify(googleSheetsService, timeout(5_000).times(2))
+        .writeInvestmentsData(any(), anyBoolean(), anySet(), anySet(), anyMap());
+    var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (syncService.getPendingSyncs() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(syncService.getPendingSyncs(), is(0));
+    assertThat(repository.drainChanges().isEmpty(), is(true));
+  }
+
+  @Test
+  void writeThroughSyncWithoutChangesWritesNothing() throws Exception {
+    syncService.sync();
+
+    verify(googleSheetsService, times(0))
+        .writeInvestmentsData(any(), anyBoolean(), anySet(), anySet(), anyMap());
+    repository.save(investment("written"));
+    syncService.sync();
+    verify(googleSheetsService, times(1))
+        .writeInvestmentsData(any(), anyBoolean(), anySet(), anySet(), anyMap());
+  }
+
+  private void sync() {
+    try {
+      syncService.sync();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Investment investment(String name) {
+    var investment =
+        new Investment(null, name, "", "EUR", LocalDateTime.of(2024, 1, 1, 0, 0), null, false);
+    var entries = new ArrayList<InvestmentEntry>();
+    entries.add(
+        new InvestmentEntry(LocalDateTime.of(2024, 1, 1, 0, 0), 100, 0, 0.05, "", investment));
+    investment.setEntries(entries);
+    investment.setForecasts(new ArrayList<>());
+    return investment;
+  }
+}